@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SSHLauncher#getCredentials()}, which every launch calls, with lots of credentials in the system store.
+ * The one we look for is stored last.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class CredentialsLookupBenchmark {
+    @Param({"10", "1000", "5000"})
+    public int credentials;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Thread jenkins;
+    private volatile Throwable failure;
+    private SSHLauncher launcher;
+
+    @Setup
+    public void setUp() throws Throwable {
+        // JenkinsRule only knows how to run around a test, so run it around one that waits for the benchmark to end
+        final JenkinsRule rule = new JenkinsRule();
+        rule.timeout = 0;
+        final Statement statement = rule.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                started.countDown();
+                finished.await();
+            }
+        }, Description.createTestDescription(CredentialsLookupBenchmark.class, "getCredentials"));
+        jenkins = new Thread("Jenkins for " + getClass().getSimpleName()) {
+            @Override
+            public void run() {
+                try {
+                    statement.evaluate();
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    started.countDown();
+                }
+            }
+        };
+        jenkins.start();
+        started.await();
+        if (failure != null) {
+            throw failure;
+        }
+
+        List<Credentials> list = new ArrayList<Credentials>(credentials);
+        for (int i = 0; i < credentials; i++) {
+            list.add(new UsernamePasswordCredentialsImpl(CredentialsScope.SYSTEM, "id" + i, null, "user" + i, "pass"));
+        }
+        SystemCredentialsProvider.getInstance().getDomainCredentialsMap().put(Domain.global(), list);
+        launcher = new SSHLauncher("localhost", 22, "id" + (credentials - 1), null, null, null, null, 1, 1, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        finished.countDown();
+        jenkins.join();
+    }
+
+    @Benchmark
+    public StandardUsernameCredentials getCredentials() {
+        return launcher.getCredentials();
+    }
+}
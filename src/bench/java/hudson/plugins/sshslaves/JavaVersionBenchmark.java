@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.tools.JDKInstaller;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of <tt>java -version</tt> output by {@link SSHLauncher#checkJavaVersion(PrintStream, String, BufferedReader, StringWriter)},
+ * using the same samples as {@link SSHLauncherTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class JavaVersionBenchmark {
+    @Param({"openjdk-7-netbsd.version", "openjdk-6-linux.version", "sun-java-1.6-mac.version"})
+    public String sample;
+
+    private String output;
+    private SSHLauncher launcher;
+    private PrintStream logger;
+
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = SSHLauncherTest.class.getResourceAsStream(sample);
+        try {
+            output = IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+        launcher = new SSHLauncher(null, 0, null, null, null,
+                new JDKInstaller(SSHLauncher.DEFAULT_JDK, true), null, null, 1, 1, 1);
+        logger = new PrintStream(new NullOutputStream());
+    }
+
+    @Benchmark
+    public String checkJavaVersion() throws IOException {
+        return launcher.checkJavaVersion(logger, "java", new BufferedReader(new StringReader(output)), new StringWriter());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link SFTPClient} against a {@link LoopbackSSHServer}.
+ *
+ * <p>
+ * Each invocation moves {@link #FILE_SIZE} bytes, so the score converts to bytes per second directly.
+ * <tt>latency</tt> is the one-way delay the server is put behind, in milliseconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SFTPBenchmark {
+    static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    @Param({"1024", "8192", "32768", "262144"})
+    public int chunkSize;
+
+    @Param({"0", "10"})
+    public long latency;
+
+    private File dir;
+    private LoopbackSSHServer server;
+    private Connection connection;
+    private SFTPClient sftp;
+    private byte[] data;
+    private String file;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("sftp", "benchmark");
+        dir.delete();
+        dir.mkdirs();
+        server = new LoopbackSSHServer(new File(dir, "hostkey.ser"), latency, 0);
+        connection = new Connection("127.0.0.1", server.getPort());
+        connection.setTCPNoDelay(true);
+        connection.connect();
+        if (!connection.authenticateWithPassword(LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD)) {
+            throw new IOException("Failed to authenticate");
+        }
+        sftp = new SFTPClient(connection);
+
+        data = new byte[FILE_SIZE];
+        new Random(0).nextBytes(data);
+        file = new File(dir, "data").getAbsolutePath();
+        write();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sftp.close();
+        connection.close();
+        server.close();
+        Util.deleteRecursive(dir);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        OutputStream out = sftp.writeToFile(file);
+        try {
+            for (int off = 0; off < data.length; off += chunkSize) {
+                out.write(data, off, Math.min(chunkSize, data.length - off));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        byte[] buf = new byte[chunkSize];
+        long total = 0;
+        InputStream in = sftp.read(file);
+        try {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                total += len;
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+
+    /**
+     * Creates a fresh 16 levels deep directory, as {@link SSHLauncher} does for the slave root.
+     * Not affected by <tt>chunkSize</tt>.
+     */
+    @Benchmark
+    public void mkdirs() throws IOException {
+        StringBuilder path = new StringBuilder(dir.getAbsolutePath()).append("/mkdirs").append(counter++);
+        for (int i = 0; i < 16; i++) {
+            path.append("/d").append(i);
+        }
+        sftp.mkdirs(path.toString(), 0700);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+/**
+ * Sizes the window of the session the slave runs in to the bandwidth-delay product of the link to the slave.
+ *
+ * <p>
+ * The window caps how much the slave can send before the master acknowledges it, and the master has to be ready to
+ * buffer that much. Too small a window throttles slaves that are far away, too big a one wastes memory on nearby
+ * ones. We measure the round trip time when opening the session and the bandwidth when copying <tt>slave.jar</tt>,
+ * and use twice their product, within {@link #MIN} and {@link #MAX}.
+ */
+final class ChannelWindow {
+    /**
+     * Window used when we don't know enough about the link, in bytes.
+     */
+    static /*non-final for script console*/ int DEFAULT =
+            Integer.getInteger(ChannelWindow.class.getName() + ".default", 4 * 1024 * 1024);
+
+    static /*non-final for script console*/ int MIN =
+            Integer.getInteger(ChannelWindow.class.getName() + ".min", 512 * 1024);
+
+    static /*non-final for script console*/ int MAX =
+            Integer.getInteger(ChannelWindow.class.getName() + ".max", 32 * 1024 * 1024);
+
+    /**
+     * Adjusts the window while the slave is connected, as the round trip time measured by {@link ConnectionMonitor}
+     * changes.
+     */
+    static /*non-final for script console*/ boolean RETUNE =
+            Boolean.getBoolean(ChannelWindow.class.getName() + ".retune");
+
+    private ChannelWindow() {
+    }
+
+    /**
+     * Computes the window size.
+     *
+     * @param roundTripMillis Round trip time, or -1 if unknown.
+     * @param bytesPerSecond  Measured throughput, or 0 or less if unknown.
+     * @param inFlightLimit   How many bytes the transfer we measured the throughput with could have in flight at most.
+     *                        If it got close to that, the link may be faster than what we measured.
+     */
+    static int size(long roundTripMillis, double bytesPerSecond, long inFlightLimit) {
+        if (roundTripMillis < 0 || bytesPerSecond <= 0) {
+            return DEFAULT;
+        }
+        double bdp = bytesPerSecond * Math.max(1, roundTripMillis) / 1000;
+        long size = (long) (2 * bdp);
+        if (bdp >= inFlightLimit / 2) {
+            size = Math.max(size, DEFAULT);
+        }
+        return (int) Math.max(MIN, Math.min(MAX, size));
+    }
+
+    /**
+     * Whether the window should change from one size to the other, ignoring small changes.
+     */
+    static boolean isWorthChanging(int from, int to) {
+        return to > from * 5L / 4 || to < from * 3L / 4;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.Session;
+import hudson.model.Computer;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pings the slave periodically over the SSH connection, to keep idle connections from being dropped by
+ * firewalls, to measure the round trip time, and to close connections whose peer has silently gone away.
+ *
+ * <p>
+ * A half-open TCP connection otherwise goes unnoticed until the remoting channel times out, and builds hang
+ * in the mean time. SSH ignore messages would keep the connection busy but get no reply, so we can't tell
+ * a dead peer from them. Instead each ping opens a session channel and closes it again, which the server
+ * has to confirm. A server that refuses the channel has answered just as well.
+ */
+final class ConnectionMonitor implements Runnable {
+    /**
+     * Seconds between pings. 0 or less disables the monitor.
+     */
+    static /*non-final for script console*/ int INTERVAL =
+            Integer.getInteger(ConnectionMonitor.class.getName() + ".interval", 60);
+
+    /**
+     * Number of consecutive pings that may go unanswered, each for {@link #INTERVAL} seconds,
+     * before we close the connection.
+     */
+    static /*non-final for script console*/ int MAX_MISSED =
+            Integer.getInteger(ConnectionMonitor.class.getName() + ".maxMissed", 3);
+
+    private final Connection connection;
+    private final String name;
+
+    private volatile long roundTripMillis = -1;
+
+    /**
+     * The ping in flight, if any.
+     */
+    private Future<Long> pending;
+    private int missed;
+    private volatile ScheduledFuture<?> task;
+
+    /**
+     * The sessions whose windows we adjust as the round trip time changes, and what we need for that.
+     * More than one if the connection is {@link SharedConnections shared}.
+     */
+    private final Map<Session, Tuning> tuned = new ConcurrentHashMap<Session, Tuning>();
+
+    private ConnectionMonitor(Connection connection, String name) {
+        this.connection = connection;
+        this.name = name;
+    }
+
+    /**
+     * Starts monitoring the given connection.
+     *
+     * @return null if monitoring is disabled.
+     */
+    static ConnectionMonitor start(Connection connection, String name) {
+        if (INTERVAL <= 0) {
+            return null;
+        }
+        ConnectionMonitor m = new ConnectionMonitor(connection, name);
+        m.task = Timer.get().scheduleWithFixedDelay(m, INTERVAL, INTERVAL, TimeUnit.SECONDS);
+        return m;
+    }
+
+    /**
+     * Stops monitoring, without touching the connection.
+     */
+    void stop() {
+        ScheduledFuture<?> t = task;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    /**
+     * Resizes the window of the given session to the {@link ChannelWindow} computed from the given throughput and
+     * the round trip time of each ping, whenever that differs enough from the current size.
+     */
+    void retune(Session session, double bytesPerSecond, long inFlightLimit, int windowSize) {
+        if (bytesPerSecond <= 0) {
+            return; // the size would not depend on the round trip time
+        }
+        tuned.put(session, new Tuning(bytesPerSecond, inFlightLimit, windowSize));
+    }
+
+    /**
+     * Stops adjusting the window of the given session, such as because the slave using it went away.
+     */
+    void untune(Session session) {
+        if (session != null) {
+            tuned.remove(session);
+        }
+    }
+
+    /**
+     * Round trip time measured by the last ping that was answered, in milliseconds, or -1 if none was.
+     */
+    long getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    public void run() {
+        try {
+            if (pending != null) {
+                if (pending.isDone()) {
+                    roundTripMillis = pending.get();
+                    missed = 0;
+                    tune();
+                } else {
+                    missed++;
+                }
+            }
+            if (missed >= Math.max(1, MAX_MISSED)) {
+                LOGGER.log(Level.WARNING, "{0} has not answered {1} pings in a row, closing the SSH connection",
+                        new Object[]{name, missed});
+                stop();
+                pending.cancel(true);
+                connection.close();
+                return;
+            }
+            if (pending == null || pending.isDone()) {
+                pending = Computer.threadPoolForRemoting.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        long start = System.nanoTime();
+                        Session s;
+                        try {
+                            s = connection.openSession();
+                        } catch (IOException e) {
+                            if (SSHLauncher.getTransportLossCause(connection) != null) {
+                                throw e;
+                            }
+                            // refused, such as when MaxSessions is reached, which the peer had to be alive for
+                            LOGGER.log(Level.FINER, name + " refused to open the ping channel", e);
+                            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        }
+                        long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        s.close();
+                        return rtt;
+                    }
+                });
+            }
+        } catch (Exception e) {
+            // pings only fail once the connection is closed, so there's nothing left to monitor
+            LOGGER.log(Level.FINE, "Failed to ping " + name, e);
+            stop();
+        }
+    }
+
+    private void tune() {
+        for (Map.Entry<Session, Tuning> e : tuned.entrySet()) {
+            Tuning t = e.getValue();
+            int size = ChannelWindow.size(roundTripMillis, t.bytesPerSecond, t.inFlightLimit);
+            if (ChannelWindow.isWorthChanging(t.windowSize, size)) {
+                LOGGER.log(Level.FINE, "Resizing the channel window of {0} from {1} to {2} bytes for a round trip time of {3}ms",
+                        new Object[]{name, t.windowSize, size, roundTripMillis});
+                e.getKey().setWindowSize(size);
+                t.windowSize = size;
+            }
+        }
+    }
+
+    /**
+     * What we need to know to size the window of a session.
+     */
+    private static final class Tuning {
+        final double bytesPerSecond;
+        final long inFlightLimit;
+        volatile int windowSize;
+
+        Tuning(double bytesPerSecond, long inFlightLimit, int windowSize) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.inFlightLimit = inFlightLimit;
+            this.windowSize = windowSize;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionMonitor.class.getName());
+}
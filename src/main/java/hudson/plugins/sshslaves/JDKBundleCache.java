@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.tools.JDKInstaller;
+import hudson.tools.JDKInstaller.CPU;
+import hudson.tools.JDKInstaller.Platform;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.TeeInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JDK bundles downloaded by the master for {@link SSHLauncher#attemptToInstallJDK}, kept on the master's disk so that
+ * a wave of new slaves downloads each bundle once, not once per slave.
+ *
+ * <p>
+ * Bundles are keyed by JDK version, platform and CPU. Only one download of a bundle happens at a time, and whoever
+ * else needs it meanwhile waits for that one. The digest of each bundle is recorded next to it and checked before
+ * the first use of the bundle by this master process. The least recently used bundles are deleted when the cache
+ * grows over {@link #MAX_SIZE}, except for those that have been handed out and not {@link #release(File) released}
+ * yet, as a slave may still be copying them.
+ */
+final class JDKBundleCache {
+    /**
+     * Maximum total size of the cached bundles, in megabytes.
+     */
+    static /*non-final for script console*/ long MAX_SIZE =
+            Long.getLong(JDKBundleCache.class.getName() + ".maxSize", 1024);
+
+    private static final String BUNDLE_SUFFIX = ".bundle";
+    private static final String CHECKSUM_SUFFIX = ".sha256";
+
+    private static JDKBundleCache INSTANCE;
+
+    private final File dir;
+    private final Map<String, FutureTask<File>> inFlight = new HashMap<String, FutureTask<File>>();
+    private final Set<String> verified = Collections.synchronizedSet(new HashSet<String>());
+    /**
+     * Number of callers using each bundle, by name. Also guards the deletion of bundles.
+     */
+    private final Map<String, Integer> inUse = new HashMap<String, Integer>();
+
+    JDKBundleCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache in <tt>$JENKINS_HOME/cache/ssh-slaves/jdk</tt>.
+     */
+    static synchronized JDKBundleCache get() {
+        if (INSTANCE == null) {
+            INSTANCE = new JDKBundleCache(new File(Jenkins.getActiveInstance().getRootDir(), "cache/ssh-slaves/jdk"));
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the bundle of the given JDK for the given platform, downloading it unless it's cached.
+     * The caller must {@link #release(File)} it when done with it.
+     */
+    File get(final JDKInstaller installer, final Platform platform, final CPU cpu, final TaskListener listener)
+            throws IOException, InterruptedException {
+        return get(installer.id + "-" + platform + "-" + cpu, new Callable<URL>() {
+            public URL call() throws Exception {
+                return installer.locate(listener, platform, cpu);
+            }
+        }, listener);
+    }
+
+    /**
+     * Returns the bundle with the given key, downloading it from where the given locator says unless it's cached.
+     * The caller must {@link #release(File)} it when done with it.
+     */
+    File get(String key, final Callable<URL> locator, final TaskListener listener)
+            throws IOException, InterruptedException {
+        final String name = key.replaceAll("[^A-Za-z0-9._-]", "_");
+        // from now on, so that a download of another bundle can't evict this one before we return it
+        use(name, 1);
+        boolean success = false;
+        try {
+            File bundle = download(key, name, locator, listener);
+            success = true;
+            return bundle;
+        } finally {
+            if (!success) {
+                use(name, -1);
+            }
+        }
+    }
+
+    /**
+     * Tells the cache that a bundle returned by {@link #get} isn't used any more, so that it may be evicted.
+     */
+    void release(File bundle) {
+        String name = bundle.getName();
+        if (name.endsWith(BUNDLE_SUFFIX)) {
+            use(name.substring(0, name.length() - BUNDLE_SUFFIX.length()), -1);
+        }
+    }
+
+    private void use(String name, int delta) {
+        synchronized (inUse) {
+            Integer n = inUse.get(name);
+            int users = (n == null ? 0 : n) + delta;
+            if (users > 0) {
+                inUse.put(name, users);
+            } else {
+                inUse.remove(name);
+            }
+        }
+    }
+
+    private File download(String key, final String name, final Callable<URL> locator, final TaskListener listener)
+            throws IOException, InterruptedException {
+        FutureTask<File> task;
+        boolean mine = false;
+        synchronized (inFlight) {
+            task = inFlight.get(name);
+            if (task == null) {
+                task = new FutureTask<File>(new Callable<File>() {
+                    public File call() throws Exception {
+                        return load(name, locator, listener);
+                    }
+                });
+                inFlight.put(name, task);
+                mine = true;
+            }
+        }
+        if (mine) {
+            try {
+                task.run();
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(name);
+                }
+            }
+        } else {
+            listener.getLogger().println("Waiting for another download of " + key + " to complete");
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Failed to download " + key, cause);
+        }
+    }
+
+    private File load(String name, Callable<URL> locator, TaskListener listener) throws Exception {
+        File bundle = new File(dir, name + BUNDLE_SUFFIX);
+        File checksum = new File(dir, name + CHECKSUM_SUFFIX);
+        if (bundle.isFile() && checksum.isFile()) {
+            if (verified.contains(name)
+                    || digest(new FileInputStream(bundle)).equals(FileUtils.readFileToString(checksum, "US-ASCII").trim())) {
+                verified.add(name);
+                bundle.setLastModified(System.currentTimeMillis());
+                listener.getLogger().println("Using the cached " + bundle);
+                return bundle;
+            }
+            LOGGER.log(Level.WARNING, "{0} does not match its checksum, downloading it again", bundle);
+        }
+        verified.remove(name);
+        bundle.delete();
+        checksum.delete();
+
+        URL url = locator.call();
+        dir.mkdirs();
+        File tmp = File.createTempFile(name, ".tmp", dir);
+        try {
+            String digest;
+            OutputStream os = new FileOutputStream(tmp);
+            try {
+                digest = digest(new TeeInputStream(url.openStream(), os));
+            } finally {
+                os.close();
+            }
+            if (!tmp.renameTo(bundle)) {
+                throw new IOException("Failed to rename " + tmp + " to " + bundle);
+            }
+            FileUtils.writeStringToFile(checksum, digest, "US-ASCII");
+        } finally {
+            tmp.delete();
+        }
+        verified.add(name);
+        evict(bundle);
+        return bundle;
+    }
+
+    /**
+     * Deletes the least recently used bundles other than the given one and those in use
+     * until the cache fits in {@link #MAX_SIZE}.
+     */
+    void evict(File keep) {
+        synchronized (inUse) {
+            evictUnused(keep);
+        }
+    }
+
+    private void evictUnused(File keep) {
+        File[] bundles = dir.listFiles();
+        if (bundles == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : bundles) {
+            if (f.getName().endsWith(BUNDLE_SUFFIX)) {
+                total += f.length();
+            }
+        }
+        Arrays.sort(bundles, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = a.lastModified(), y = b.lastModified();
+                return x < y ? -1 : x == y ? 0 : 1;
+            }
+        });
+        long max = MAX_SIZE * 1024 * 1024;
+        for (File f : bundles) {
+            if (total <= max) {
+                break;
+            }
+            if (!f.getName().endsWith(BUNDLE_SUFFIX) || f.equals(keep)) {
+                continue;
+            }
+            String name = f.getName().substring(0, f.getName().length() - BUNDLE_SUFFIX.length());
+            if (inUse.containsKey(name)) {
+                // a slave may still be copying it
+                continue;
+            }
+            LOGGER.log(Level.INFO, "Evicting {0} from the JDK bundle cache", f);
+            total -= f.length();
+            verified.remove(name);
+            f.delete();
+            new File(dir, name + CHECKSUM_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Reads the given stream to its end and returns its hex-encoded SHA-256.
+     */
+    private static String digest(InputStream in) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        DigestInputStream din = new DigestInputStream(in, md);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            while (din.read(buf) >= 0) {
+                // just digesting
+            }
+        } finally {
+            din.close();
+        }
+        return Util.toHexString(md.digest());
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JDKBundleCache.class.getName());
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.Util;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, per node, which Java the last successful launch resolved to, so that the next launch can
+ * verify it with a single stat instead of trying every candidate again. An entry only counts as long as
+ * the node still has the same Java candidates, so changing where the node looks for Java takes effect
+ * on the next launch.
+ *
+ * <p>
+ * Persisted in <tt>$JENKINS_HOME/hudson.plugins.sshslaves.JavaCache.xml</tt> so that it survives
+ * master restarts, which is when most reconnects happen.
+ */
+final class JavaCache {
+    /**
+     * What we know about the Java of one node.
+     */
+    static final class Entry {
+        /**
+         * Absolute path of the java executable.
+         */
+        final String path;
+
+        /**
+         * The version it reported, if known.
+         */
+        final String version;
+
+        /**
+         * Size and modification time of the executable, which we expect to change when Java is replaced.
+         */
+        final long size;
+        final long mtime;
+
+        /**
+         * Digest of the Java candidates of the node at the time, which change with its <tt>JAVA_HOME</tt>,
+         * its JDK tool locations and the installed {@link JavaProvider}s. Null in entries saved by older versions.
+         */
+        final String candidates;
+
+        Entry(String path, String version, long size, long mtime, String candidates) {
+            this.path = path;
+            this.version = version;
+            this.size = size;
+            this.mtime = mtime;
+            this.candidates = candidates;
+        }
+
+        /**
+         * Returns the digest that {@link #candidates} is compared with.
+         */
+        static String digestOf(List<String> candidates) {
+            return Util.getDigestOf(StringUtils.join(candidates, "\n"));
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private static JavaCache INSTANCE;
+
+    private JavaCache() {
+    }
+
+    /**
+     * Returns what we remember about the given node, or null.
+     */
+    static synchronized Entry get(String nodeName) {
+        return load().entries.get(nodeName);
+    }
+
+    static synchronized void put(String nodeName, Entry entry) {
+        load().entries.put(nodeName, entry);
+        save();
+    }
+
+    /**
+     * Names of the nodes we remember something about.
+     */
+    static synchronized Set<String> getNodeNames() {
+        return new HashSet<String>(load().entries.keySet());
+    }
+
+    static synchronized void remove(String nodeName) {
+        if (load().entries.remove(nodeName) != null) {
+            save();
+        }
+    }
+
+    private static JavaCache load() {
+        if (INSTANCE == null) {
+            XmlFile file = getConfigFile();
+            if (file != null && file.exists()) {
+                try {
+                    INSTANCE = (JavaCache) file.read();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+            if (INSTANCE == null) {
+                INSTANCE = new JavaCache();
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static void save() {
+        XmlFile file = getConfigFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(INSTANCE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        Jenkins j = Jenkins.getInstance();
+        return j == null ? null : new XmlFile(new File(j.getRootDir(), JavaCache.class.getName() + ".xml"));
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JavaCache.class.getName());
+}
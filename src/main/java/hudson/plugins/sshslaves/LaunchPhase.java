@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+/**
+ * The phases of {@link SSHLauncher#launch}, as reported to {@link LaunchPhaseListener}s.
+ */
+public enum LaunchPhase {
+    /**
+     * TCP connection and key exchange, which the SSH library performs as one step.
+     */
+    CONNECT,
+    /**
+     * Authentication with the configured credentials.
+     */
+    AUTHENTICATE,
+    /**
+     * Collecting what the following phases need to know about the slave in one go.
+     */
+    PROBE,
+    /**
+     * Checking that the login shell doesn't print anything.
+     */
+    VERIFY_NO_HEADER_JUNK,
+    /**
+     * Reporting the environment of the remote user.
+     */
+    REPORT_ENVIRONMENT,
+    /**
+     * Finding, or installing, Java on the slave.
+     */
+    RESOLVE_JAVA,
+    /**
+     * Copying <tt>slave.jar</tt>.
+     */
+    COPY_SLAVE_JAR,
+    /**
+     * Starting the slave process and establishing the channel.
+     */
+    START_SLAVE,
+    /**
+     * The whole launch, from the beginning to the channel being established.
+     */
+    TOTAL
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.slaves.SlaveComputer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the duration of each {@link LaunchPhase} of every {@link SSHLauncher#launch}, for example to feed them
+ * into a monitoring system.
+ *
+ * @see LaunchTimings
+ */
+public abstract class LaunchPhaseListener implements ExtensionPoint {
+    /**
+     * Called when a phase of a launch has completed successfully.
+     *
+     * @param computer The computer being launched.
+     * @param phase    The phase that has completed.
+     * @param millis   How long the phase took.
+     */
+    public abstract void onCompleted(SlaveComputer computer, LaunchPhase phase, long millis);
+
+    /**
+     * Notifies all the registered listeners.
+     */
+    static void fireCompleted(SlaveComputer computer, LaunchPhase phase, long millis) {
+        for (LaunchPhaseListener l : all()) {
+            try {
+                l.onCompleted(computer, phase, millis);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, l + " failed to handle the completion of " + phase, e);
+            }
+        }
+    }
+
+    /**
+     * All registered instances.
+     */
+    public static ExtensionList<LaunchPhaseListener> all() {
+        return ExtensionList.lookup(LaunchPhaseListener.class);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LaunchPhaseListener.class.getName());
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caps how many launches are in the expensive phases at the same time, across all {@link SSHLauncher}s.
+ *
+ * <p>
+ * When lots of slaves reconnect at once, such as after a master restart, running every key exchange and
+ * <tt>slave.jar</tt> copy at the same time pegs the master CPU and network, whereas running them one after
+ * another takes forever. Launches that don't get a slot wait in a queue, where those of nodes with more
+ * buildable items waiting for them go first, and the rest in the order they arrived.
+ */
+public class LaunchScheduler {
+    /**
+     * Maximum number of SSH handshakes (TCP connect, key exchange and authentication) that run at the same time.
+     */
+    public static /*non-final for script console*/ int MAX_CONCURRENT_HANDSHAKES = Integer.getInteger(
+            LaunchScheduler.class.getName() + ".maxConcurrentHandshakes",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Maximum number of <tt>slave.jar</tt> copies that run at the same time.
+     */
+    public static /*non-final for script console*/ int MAX_CONCURRENT_UPLOADS = Integer.getInteger(
+            LaunchScheduler.class.getName() + ".maxConcurrentUploads", 8);
+
+    /**
+     * Throttles SSH handshakes.
+     */
+    public static final LaunchScheduler HANDSHAKES = new LaunchScheduler("handshake") {
+        @Override
+        int getLimit() {
+            return MAX_CONCURRENT_HANDSHAKES;
+        }
+    };
+
+    /**
+     * Throttles <tt>slave.jar</tt> copies.
+     */
+    public static final LaunchScheduler UPLOADS = new LaunchScheduler("upload") {
+        @Override
+        int getLimit() {
+            return MAX_CONCURRENT_UPLOADS;
+        }
+    };
+
+    private final String name;
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+    private int running;
+    private long sequence;
+
+    LaunchScheduler(String name) {
+        this.name = name;
+    }
+
+    int getLimit() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Number of launches waiting for a slot.
+     */
+    public synchronized int getQueueLength() {
+        return waiting.size();
+    }
+
+    /**
+     * Number of launches currently holding a slot.
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Waits for a slot for the given node. Every successful call must be paired with {@link #release()}.
+     */
+    public void acquire(Node node) throws InterruptedException {
+        synchronized (this) {
+            if (waiting.isEmpty() && running < Math.max(1, getLimit())) {
+                running++;
+                return;
+            }
+        }
+        // only worth looking at the build queue when we have to wait
+        acquire(node == null ? 0 : getDemand(node));
+    }
+
+    synchronized void acquire(int priority) throws InterruptedException {
+        if (waiting.isEmpty() && running < Math.max(1, getLimit())) {
+            running++;
+            return;
+        }
+        Ticket t = new Ticket(priority, sequence++);
+        waiting.add(t);
+        LOGGER.log(Level.FINE, "Queued a {0} with priority {1}; {2} waiting", new Object[]{name, priority, waiting.size()});
+        try {
+            while (!t.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (t.granted) {
+                release();
+            } else {
+                waiting.remove(t);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives up a slot obtained from {@link #acquire(Node)}.
+     */
+    public synchronized void release() {
+        running--;
+        while (running < Math.max(1, getLimit()) && !waiting.isEmpty()) {
+            waiting.poll().granted = true;
+            running++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Number of buildable items in the queue that could run on the given node.
+     */
+    private static int getDemand(Node node) {
+        Jenkins j = Jenkins.getInstance();
+        if (j == null) {
+            return 0;
+        }
+        int demand = 0;
+        try {
+            for (Queue.BuildableItem item : j.getQueue().getBuildableItems()) {
+                Label l = item.getAssignedLabel();
+                if (l == null ? node.getMode() == Node.Mode.NORMAL : l.contains(node)) {
+                    demand++;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to compute the demand for " + node.getNodeName(), e);
+        }
+        return demand;
+    }
+
+    private static final class Ticket implements Comparable<Ticket> {
+        final int priority;
+        final long sequence;
+        boolean granted;
+
+        Ticket(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket o) {
+            if (priority != o.priority) {
+                return priority > o.priority ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LaunchScheduler.class.getName());
+}
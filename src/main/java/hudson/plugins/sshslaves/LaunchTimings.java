@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.SlaveComputer;
+import jenkins.model.Jenkins;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps histograms of how long each {@link LaunchPhase} takes, per node and across all nodes.
+ *
+ * <p>
+ * This is what tells you which phase dominates a slow launch, and whether an upgrade made things worse.
+ */
+@Extension
+public class LaunchTimings extends LaunchPhaseListener {
+    private final Map<LaunchPhase, Histogram> aggregate = newHistograms();
+    private final ConcurrentHashMap<String, Map<LaunchPhase, Histogram>> perNode =
+            new ConcurrentHashMap<String, Map<LaunchPhase, Histogram>>();
+
+    @Override
+    public void onCompleted(SlaveComputer computer, LaunchPhase phase, long millis) {
+        aggregate.get(phase).record(millis);
+
+        Node node = computer.getNode();
+        String name = node != null ? node.getNodeName() : computer.getName();
+        Map<LaunchPhase, Histogram> histograms = perNode.get(name);
+        if (histograms == null) {
+            Map<LaunchPhase, Histogram> created = newHistograms();
+            histograms = perNode.putIfAbsent(name, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+        histograms.get(phase).record(millis);
+    }
+
+    /**
+     * Returns the histogram of the given phase across all nodes.
+     */
+    public Histogram getAggregate(LaunchPhase phase) {
+        return aggregate.get(phase);
+    }
+
+    /**
+     * Returns the histogram of the given phase of the given node, or null if it hasn't been launched.
+     */
+    public Histogram getNode(String nodeName, LaunchPhase phase) {
+        Map<LaunchPhase, Histogram> histograms = perNode.get(nodeName);
+        return histograms == null ? null : histograms.get(phase);
+    }
+
+    /**
+     * Names of the nodes we have timings for.
+     */
+    public Set<String> getNodeNames() {
+        return perNode.keySet();
+    }
+
+    /**
+     * Forgets the timings of a node, such as one that has been deleted.
+     */
+    public void forget(String nodeName) {
+        perNode.remove(nodeName);
+    }
+
+    private static Map<LaunchPhase, Histogram> newHistograms() {
+        Map<LaunchPhase, Histogram> r = new EnumMap<LaunchPhase, Histogram>(LaunchPhase.class);
+        for (LaunchPhase p : LaunchPhase.values()) {
+            r.put(p, new Histogram());
+        }
+        return r;
+    }
+
+    /**
+     * Returns the singleton instance.
+     */
+    public static LaunchTimings get() {
+        return Jenkins.getActiveInstance().getExtensionList(LaunchPhaseListener.class).get(LaunchTimings.class);
+    }
+
+    /**
+     * Histogram of durations, in buckets of exponentially growing width.
+     */
+    public static final class Histogram {
+        /**
+         * Inclusive upper bounds of the buckets in milliseconds. The last bucket takes everything above.
+         */
+        private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000};
+
+        private final long[] buckets = new long[BOUNDS.length + 1];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void record(long millis) {
+            int i = 0;
+            while (i < BOUNDS.length && millis > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i]++;
+            count++;
+            sum += millis;
+            max = Math.max(max, millis);
+        }
+
+        /**
+         * Upper bounds of the buckets returned from {@link #getBuckets()}, except the last one which has no bound.
+         */
+        public static long[] getBounds() {
+            return BOUNDS.clone();
+        }
+
+        public synchronized long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        public synchronized double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, which is accurate to the bucket it falls in.
+         *
+         * @param p between 0 and 100.
+         */
+        public synchronized long getPercentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * p / 100);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BOUNDS[i], max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count=" + count + " mean=" + getMean() + " max=" + max + " buckets=" + Arrays.toString(buckets);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.Extension;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Forgets what we know about nodes that have been deleted: their {@link LaunchTimings}, so that they don't pile up
+ * in a Jenkins that goes through many cloud slaves, and their {@link JavaCache} entry, so that a new node that gets
+ * the same name doesn't start with the Java of the old one.
+ *
+ * <p>
+ * Jenkins has no event for the deletion of a node, but it reports every change to the set of nodes.
+ */
+@Extension
+public class NodeRemovalListener extends ComputerListener {
+    @Override
+    public void onConfigurationChange() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        LaunchTimings timings = jenkins.getExtensionList(LaunchPhaseListener.class).get(LaunchTimings.class);
+        if (timings != null) {
+            for (String name : timings.getNodeNames()) {
+                if (jenkins.getNode(name) == null) {
+                    timings.forget(name);
+                }
+            }
+        }
+        for (String name : JavaCache.getNodeNames()) {
+            if (jenkins.getNode(name) == null) {
+                JavaCache.remove(name);
+            }
+        }
+    }
+}
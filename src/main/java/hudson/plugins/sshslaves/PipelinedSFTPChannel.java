@@ -0,0 +1,576 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.SFTPException;
+import com.trilead.ssh2.Session;
+import com.trilead.ssh2.sftp.ErrorCodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Minimal SFTP v3 client that keeps several requests in flight on one channel.
+ *
+ * <p>
+ * {@link SFTPClient} inherits a client that sends one request and waits for its response before
+ * sending the next one, so each 32K block of a file transfer costs a full round trip. This class
+ * speaks just enough of the protocol to stream files, and only collects the responses once the
+ * configured number of requests are outstanding, which makes transfers bandwidth-bound
+ * instead of latency-bound.
+ *
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @see <a href="http://tools.ietf.org/html/draft-ietf-secsh-filexfer-02">SFTP v3</a>
+ */
+final class PipelinedSFTPChannel {
+    /**
+     * Largest amount of data we put in a single read or write request. Every server is required to accept this.
+     */
+    static final int MAX_BLOCK_SIZE = 32768;
+
+    private static final int SSH_FXP_INIT = 1;
+    private static final int SSH_FXP_VERSION = 2;
+    private static final int SSH_FXP_OPEN = 3;
+    private static final int SSH_FXP_CLOSE = 4;
+    private static final int SSH_FXP_READ = 5;
+    private static final int SSH_FXP_WRITE = 6;
+    private static final int SSH_FXP_FSTAT = 8;
+    private static final int SSH_FXP_STATUS = 101;
+    private static final int SSH_FXP_HANDLE = 102;
+    private static final int SSH_FXP_DATA = 103;
+    private static final int SSH_FXP_ATTRS = 105;
+
+    private static final int SSH_FILEXFER_ATTR_SIZE = 0x01;
+
+    /**
+     * Largest packet we accept from the server.
+     */
+    private static final int MAX_PACKET_SIZE = 256 * 1024 + 1024;
+
+    static final int SSH_FXF_READ = 0x01;
+    static final int SSH_FXF_WRITE = 0x02;
+    static final int SSH_FXF_CREAT = 0x08;
+    static final int SSH_FXF_TRUNC = 0x10;
+
+    private final Session session;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    /**
+     * Responses that arrived while we were waiting for another one.
+     */
+    private final Map<Integer, Response> received = new HashMap<Integer, Response>();
+
+    private int nextId = 1;
+
+    /**
+     * Opens a new <tt>sftp</tt> subsystem session on the given connection.
+     */
+    PipelinedSFTPChannel(Connection connection) throws IOException {
+        this(connection, 0);
+    }
+
+    /**
+     * Opens a new <tt>sftp</tt> subsystem session on the given connection.
+     *
+     * @param windowSize
+     *      Size of the receive window of the channel, which needs to be large enough to hold all the
+     *      outstanding read responses for reads to be pipelined. 0 to keep the default.
+     */
+    PipelinedSFTPChannel(Connection connection, int windowSize) throws IOException {
+        session = connection.openSession();
+        try {
+            if (windowSize > 0) {
+                session.setWindowSize(windowSize);
+            }
+            session.startSubSystem("sftp");
+            out = new DataOutputStream(new BufferedOutputStream(session.getStdin(), MAX_BLOCK_SIZE + 1024));
+            in = new DataInputStream(new BufferedInputStream(session.getStdout(), MAX_BLOCK_SIZE + 1024));
+
+            out.writeInt(5);
+            out.writeByte(SSH_FXP_INIT);
+            out.writeInt(3);
+            out.flush();
+
+            byte[] packet = new byte[in.readInt()];
+            in.readFully(packet);
+            if (packet.length < 5 || packet[0] != SSH_FXP_VERSION) {
+                throw new IOException("The server did not reply with SSH_FXP_VERSION");
+            }
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file and returns its handle.
+     *
+     * @param pflags combination of the <tt>SSH_FXF_*</tt> flags.
+     */
+    byte[] open(String path, int pflags) throws IOException {
+        byte[] name = path.getBytes("UTF-8");
+        int id = nextId++;
+        out.writeInt(1 + 4 + 4 + name.length + 4 + 4);
+        out.writeByte(SSH_FXP_OPEN);
+        out.writeInt(id);
+        writeString(name, 0, name.length);
+        out.writeInt(pflags);
+        out.writeInt(0); // no attributes
+        out.flush();
+
+        Response r = await(id);
+        if (r.type == SSH_FXP_HANDLE) {
+            return r.readString();
+        }
+        throw r.toException("Failed to open " + path);
+    }
+
+    /**
+     * Closes a handle returned from {@link #open(String, int)}.
+     */
+    void closeHandle(byte[] handle) throws IOException {
+        int id = nextId++;
+        out.writeInt(1 + 4 + 4 + handle.length);
+        out.writeByte(SSH_FXP_CLOSE);
+        out.writeInt(id);
+        writeString(handle, 0, handle.length);
+        out.flush();
+        await(id).checkStatus("Failed to close the file");
+    }
+
+    /**
+     * Returns the size of the file behind the given handle, or -1 if the server doesn't tell.
+     */
+    long size(byte[] handle) throws IOException {
+        int id = nextId++;
+        out.writeInt(1 + 4 + 4 + handle.length);
+        out.writeByte(SSH_FXP_FSTAT);
+        out.writeInt(id);
+        writeString(handle, 0, handle.length);
+        out.flush();
+
+        Response r = await(id);
+        if (r.type != SSH_FXP_ATTRS) {
+            throw r.toException("Failed to stat the file");
+        }
+        if ((r.data.readInt() & SSH_FILEXFER_ATTR_SIZE) == 0) {
+            return -1;
+        }
+        return r.data.readLong();
+    }
+
+    /**
+     * Returns a stream that reads the given handle from the start, keeping up to {@code depth} read requests
+     * of {@code blockSize} bytes in flight. Closing the stream closes the handle and,
+     * if {@code closeChannel} is set, this channel too.
+     *
+     * @param size
+     *      Size of the file, as returned from {@link #size(byte[])}, so that we never ask for anything past the end.
+     *      -1 if unknown.
+     */
+    InputStream read(byte[] handle, long size, int blockSize, int depth, boolean closeChannel) {
+        return new ReadAheadInputStream(handle, size, blockSize, Math.max(1, depth), closeChannel);
+    }
+
+    /**
+     * Returns a stream that writes to the given handle from the given offset, keeping up to {@code window}
+     * write requests in flight. Closing the stream waits for all of them to be acknowledged,
+     * closes the handle and, if {@code closeChannel} is set, this channel too.
+     */
+    OutputStream write(byte[] handle, long offset, int window, boolean closeChannel) {
+        return new PipelinedOutputStream(handle, offset, Math.max(1, window), closeChannel);
+    }
+
+    /**
+     * Closes the underlying session.
+     */
+    void close() {
+        session.close();
+    }
+
+    private int sendRead(byte[] handle, long offset, int len) throws IOException {
+        int id = nextId++;
+        out.writeInt(1 + 4 + 4 + handle.length + 8 + 4);
+        out.writeByte(SSH_FXP_READ);
+        out.writeInt(id);
+        writeString(handle, 0, handle.length);
+        out.writeLong(offset);
+        out.writeInt(len);
+        out.flush();
+        return id;
+    }
+
+    private int sendWrite(byte[] handle, long offset, byte[] data, int off, int len) throws IOException {
+        int id = nextId++;
+        out.writeInt(1 + 4 + 4 + handle.length + 8 + 4 + len);
+        out.writeByte(SSH_FXP_WRITE);
+        out.writeInt(id);
+        writeString(handle, 0, handle.length);
+        out.writeLong(offset);
+        writeString(data, off, len);
+        out.flush();
+        return id;
+    }
+
+    private void writeString(byte[] data, int off, int len) throws IOException {
+        out.writeInt(len);
+        out.write(data, off, len);
+    }
+
+    /**
+     * Waits for the response to the given request, setting aside any other responses that arrive in the mean time.
+     */
+    private Response await(int id) throws IOException {
+        Response r = received.remove(id);
+        while (r == null) {
+            int len = in.readInt();
+            if (len < 5 || len > MAX_PACKET_SIZE) {
+                throw new IOException("Illegal SFTP packet length " + len);
+            }
+            byte[] packet = new byte[len];
+            in.readFully(packet);
+            Response next = new Response(packet);
+            if (next.id == id) {
+                r = next;
+            } else {
+                received.put(next.id, next);
+            }
+        }
+        return r;
+    }
+
+    private static final class Response {
+        final int type;
+        final int id;
+        final DataInputStream data;
+
+        Response(byte[] packet) throws IOException {
+            data = new DataInputStream(new ByteArrayInputStream(packet));
+            type = data.readUnsignedByte();
+            id = data.readInt();
+        }
+
+        byte[] readString() throws IOException {
+            byte[] b = new byte[data.readInt()];
+            data.readFully(b);
+            return b;
+        }
+
+        boolean isEOF() throws IOException {
+            if (type != SSH_FXP_STATUS) {
+                return false;
+            }
+            data.mark(4);
+            int code = data.readInt();
+            data.reset();
+            return code == ErrorCodes.SSH_FX_EOF;
+        }
+
+        void checkStatus(String message) throws IOException {
+            if (type != SSH_FXP_STATUS) {
+                throw new IOException(message + ": unexpected SFTP response type " + type);
+            }
+            data.mark(4);
+            if (data.readInt() != ErrorCodes.SSH_FX_OK) {
+                data.reset();
+                throw toException(message);
+            }
+        }
+
+        IOException toException(String message) throws IOException {
+            if (type != SSH_FXP_STATUS) {
+                return new IOException(message + ": unexpected SFTP response type " + type);
+            }
+            int code = data.readInt();
+            return new SFTPException(message + ": " + new String(readString(), "UTF-8"), code);
+        }
+    }
+
+    /**
+     * A read request that hasn't been consumed yet.
+     */
+    private static final class PendingRead {
+        final int id;
+        final long offset;
+        final int length;
+
+        PendingRead(int id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final class ReadAheadInputStream extends InputStream {
+        private final byte[] handle;
+        private final long size;
+        private final int blockSize;
+        private final int depth;
+        private final boolean closeChannel;
+        private final LinkedList<PendingRead> pending = new LinkedList<PendingRead>();
+
+        /**
+         * The block being consumed, and the position in it.
+         */
+        private byte[] block = new byte[0];
+        private int blockPos;
+
+        /**
+         * Offset in the file of the first byte of {@link #block}.
+         */
+        private long blockOffset;
+
+        /**
+         * Offset in the file of the next read request to send.
+         */
+        private long nextOffset;
+
+        private boolean eof;
+        private boolean closed;
+
+        ReadAheadInputStream(byte[] handle, long size, int blockSize, int depth, boolean closeChannel) {
+            this.handle = handle;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.depth = depth;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (blockPos == block.length && !nextBlock()) {
+                return -1;
+            }
+            return block[blockPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (blockPos == block.length && !nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - blockPos);
+            System.arraycopy(block, blockPos, b, off, n);
+            blockPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return block.length - blockPos;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0 || eof && blockPos == block.length) {
+                return 0;
+            }
+            if (size < 0) {
+                // we don't know where the end is, so read through
+                return super.skip(n);
+            }
+            long position = blockOffset + blockPos;
+            long target = position + Math.min(n, size - position);
+            while (blockOffset + block.length < target) {
+                if (target < nextOffset && !pending.isEmpty()) {
+                    // already in flight, so just consume it
+                    if (!nextBlock()) {
+                        return blockOffset + blockPos - position;
+                    }
+                } else {
+                    // nothing we asked for is of any use. start over from the target
+                    drain();
+                    blockOffset = nextOffset = target;
+                }
+            }
+            blockPos = (int) (target - blockOffset);
+            return target - position;
+        }
+
+        /**
+         * Makes the next block current, sending more read requests as needed.
+         *
+         * @return false if we hit EOF.
+         */
+        private boolean nextBlock() throws IOException {
+            while (true) {
+                while (!eof && pending.size() < depth && (size < 0 || nextOffset < size)) {
+                    int len = size < 0 ? blockSize : (int) Math.min(blockSize, size - nextOffset);
+                    pending.add(new PendingRead(sendRead(handle, nextOffset, len), nextOffset, len));
+                    nextOffset += len;
+                }
+                if (pending.isEmpty()) {
+                    eof = true;
+                    return false;
+                }
+
+                PendingRead p = pending.removeFirst();
+                Response r = await(p.id);
+                if (r.type == SSH_FXP_DATA) {
+                    byte[] data = r.readString();
+                    if (data.length == 0) {
+                        // asking again would get us the same, forever. the file must have shrunk under our feet
+                        drain();
+                        eof = true;
+                        return false;
+                    }
+                    if (data.length < p.length) {
+                        // short read. ask for the rest before anything else that's already in flight
+                        long from = p.offset + data.length;
+                        int rest = p.length - data.length;
+                        pending.addFirst(new PendingRead(sendRead(handle, from, rest), from, rest));
+                    }
+                    block = data;
+                    blockPos = 0;
+                    blockOffset = p.offset;
+                    return true;
+                }
+                if (r.isEOF()) {
+                    // everything after this is past the end of the file, too
+                    drain();
+                    eof = true;
+                    return false;
+                }
+                throw r.toException("Failed to read");
+            }
+        }
+
+        /**
+         * Collects and discards the responses to all the outstanding read requests.
+         */
+        private void drain() throws IOException {
+            while (!pending.isEmpty()) {
+                await(pending.removeFirst().id);
+            }
+            block = new byte[0];
+            blockPos = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (closeChannel) {
+                // closing the session releases the handle, too
+                PipelinedSFTPChannel.this.close();
+                return;
+            }
+            drain();
+            closeHandle(handle);
+        }
+    }
+
+    private final class PipelinedOutputStream extends OutputStream {
+        private final byte[] handle;
+        private final int window;
+        private final boolean closeChannel;
+        private final LinkedList<Integer> outstanding = new LinkedList<Integer>();
+        private final byte[] buf = new byte[MAX_BLOCK_SIZE];
+        private int count;
+        private long offset;
+        private boolean closed;
+
+        PipelinedOutputStream(byte[] handle, long offset, int window, boolean closeChannel) {
+            this.handle = handle;
+            this.offset = offset;
+            this.window = window;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                send();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    send();
+                }
+                int chunk = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                send();
+            }
+        }
+
+        private void send() throws IOException {
+            if (outstanding.size() >= window) {
+                await(outstanding.removeFirst()).checkStatus("Failed to write");
+            }
+            outstanding.add(sendWrite(handle, offset, buf, 0, count));
+            offset += count;
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+                while (!outstanding.isEmpty()) {
+                    await(outstanding.removeFirst()).checkStatus("Failed to write");
+                }
+                closeHandle(handle);
+            } finally {
+                if (closeChannel) {
+                    PipelinedSFTPChannel.this.close();
+                }
+            }
+        }
+    }
+}
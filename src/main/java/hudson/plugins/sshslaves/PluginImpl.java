@@ -24,12 +24,21 @@
 package hudson.plugins.sshslaves;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.trilead.ssh2.Connection;
 import hudson.Plugin;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 
 /**
  * Entry point of ssh-slaves plugin.
@@ -38,10 +47,23 @@ import hudson.Plugin;
  */
 public class PluginImpl extends Plugin {
 
+    /**
+     * Seconds to wait for the connections to close when the plugin is stopped.
+     */
+    public static /*non-final for script console*/ int CLOSE_TIMEOUT =
+            Integer.getInteger(PluginImpl.class.getName() + ".closeTimeout", 10);
+
+    /**
+     * Maximum number of connections closed at the same time when the plugin is stopped.
+     */
+    public static /*non-final for script console*/ int MAX_CONCURRENT_CLOSES =
+            Integer.getInteger(PluginImpl.class.getName() + ".maxConcurrentCloses", 16);
+
     /**
      * The connections to close when the plugin is stopped.
      */
-    private static final List<Connection> activeConnections = new ArrayList<Connection>();
+    private static final ConcurrentMap<Connection, ConnectionInfo> activeConnections =
+            new ConcurrentHashMap<Connection, ConnectionInfo>();
 
     /**
      * {@inheritDoc}
@@ -62,16 +84,36 @@ public class PluginImpl extends Plugin {
     }
 
     /**
-     * Closes all the registered connections.
+     * Closes all the registered connections, several at a time, and waits up to {@link #CLOSE_TIMEOUT} seconds
+     * for that.
      */
-    private static synchronized void closeRegisteredConnections() {
-        for (Connection connection : activeConnections) {
-            LOGGER.log(Level.INFO, "Forcing connection to {0}:{1} closed.",
-                    new Object[]{connection.getHostname(), connection.getPort()});
-            // force closed just in case
-            connection.close();
+    private static void closeRegisteredConnections() throws InterruptedException {
+        // remove them one by one, so that one registered in the mean time is either closed or stays registered
+        List<ConnectionInfo> connections = new ArrayList<ConnectionInfo>();
+        for (Iterator<ConnectionInfo> it = activeConnections.values().iterator(); it.hasNext(); ) {
+            connections.add(it.next());
+            it.remove();
+        }
+        if (connections.isEmpty()) {
+            return;
+        }
+        ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_CONCURRENT_CLOSES, connections.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Closing SSH connections"));
+        for (final ConnectionInfo info : connections) {
+            es.submit(new Runnable() {
+                public void run() {
+                    LOGGER.log(Level.INFO, "Forcing connection to {0}:{1} closed.",
+                            new Object[]{info.getHost(), info.getPort()});
+                    // force closed just in case
+                    info.connection.close();
+                }
+            });
+        }
+        es.shutdown();
+        if (!es.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+            LOGGER.log(Level.WARNING, "Gave up waiting for {0} SSH connections to close after {1} seconds",
+                    new Object[]{es.shutdownNow().size(), CLOSE_TIMEOUT});
         }
-        activeConnections.clear();
     }
 
     /**
@@ -79,10 +121,8 @@ public class PluginImpl extends Plugin {
      *
      * @param connection The connection.
      */
-    public static synchronized void register(Connection connection) {
-        if (!activeConnections.contains(connection)) {
-            activeConnections.add(connection);
-        }
+    public static void register(Connection connection) {
+        activeConnections.putIfAbsent(connection, new ConnectionInfo(connection));
     }
 
     /**
@@ -90,10 +130,71 @@ public class PluginImpl extends Plugin {
      *
      * @param connection The connection.
      */
-    public static synchronized void unregister(Connection connection) {
+    public static void unregister(Connection connection) {
         activeConnections.remove(connection);
     }
 
+    /**
+     * Counts bytes of files we sent to the slave over a registered connection,
+     * that is <tt>slave.jar</tt> and JDK bundles.
+     */
+    static void transferred(Connection connection, long bytes) {
+        ConnectionInfo info = activeConnections.get(connection);
+        if (info != null) {
+            info.bytesTransferred.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Returns the registered connections, for diagnostics.
+     */
+    public static List<ConnectionInfo> getConnections() {
+        return new ArrayList<ConnectionInfo>(activeConnections.values());
+    }
+
+    /**
+     * What we know about a registered connection.
+     */
+    public static final class ConnectionInfo {
+        private final Connection connection;
+        private final long registered = System.currentTimeMillis();
+        private final AtomicLong bytesTransferred = new AtomicLong();
+
+        private ConnectionInfo(Connection connection) {
+            this.connection = connection;
+        }
+
+        public String getHost() {
+            return connection.getHostname();
+        }
+
+        public int getPort() {
+            return connection.getPort();
+        }
+
+        /**
+         * Milliseconds since the connection was registered.
+         */
+        public long getAge() {
+            return System.currentTimeMillis() - registered;
+        }
+
+        /**
+         * Bytes of files we copied to the slave over this connection, that is <tt>slave.jar</tt> and JDK bundles,
+         * as opposed to all the traffic of the connection.
+         */
+        public long getBytesTransferred() {
+            return bytesTransferred.get();
+        }
+
+        /**
+         * Number of slaves using this connection.
+         */
+        public int getUsers() {
+            return Math.max(1, SharedConnections.getReferences(connection));
+        }
+    }
+
     /**
      * The logger for this class.
      */
@@ -32,7 +32,6 @@ import hudson.Proc;
 import hudson.Util;
 import hudson.Functions;
 import static hudson.Functions.defaulted;
-import hudson.util.StreamCopyThread;
 import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
@@ -70,12 +69,8 @@ final class RemoteLauncher extends Launcher {
 
         final Session session = connection.openSession();
         session.execCommand(makeCommandLine(ps.cmds(),ps.pwd()));
-        final Thread t1 = new StreamCopyThread("stdout copier: "+name,session.getStdout(), ps.stdout(),false);
-        t1.start();
-        final Thread t2 = new StreamCopyThread("stderr copier: "+name,session.getStderr(), defaulted(ps.stderr(),ps.stdout()),false);
-        t2.start();
-        final Thread t3 = new StreamCopyThread("stdin copier: "+name,ps.stdin(), session.getStdin(),true);
-        t3.start();
+        final StreamPump.Pump pump = StreamPump.start(name, session, ps.stdout(),
+                defaulted(ps.stderr(), ps.stdout()), ps.stdin());
 
         return new Proc() {
             public boolean isAlive() throws IOException, InterruptedException {
@@ -83,17 +78,13 @@ final class RemoteLauncher extends Launcher {
             }
 
             public void kill() throws IOException, InterruptedException {
-                t1.interrupt();
-                t2.interrupt();
-                t3.interrupt();
+                pump.cancel();
                 session.close();
             }
 
             public int join() throws IOException, InterruptedException {
                 try {
-                    t1.join();
-                    t2.join();
-                    t3.join();
+                    pump.join();
                     session.waitForCondition(ChannelCondition.EXIT_STATUS,0);
                     Integer r = session.getExitStatus();
                     if(r!=null) return r;
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Everything a launch wants to know about the slave, collected by one script in one session.
+ *
+ * <p>
+ * Checking for header junk, reporting the environment, running <tt>uname</tt> and asking every Java candidate
+ * for its version each used to open a session of their own, so on a high latency link the round trips
+ * added up. The script prints a marker line before each section, which is how we cut its output apart.
+ *
+ * @see SSHLauncher#launch
+ */
+final class RemoteProbe {
+    /**
+     * Whatever the login shell printed before our script got to run, plus anything on stderr.
+     */
+    final String junk;
+
+    /**
+     * Output of <tt>set</tt>.
+     */
+    final String environment;
+
+    /**
+     * Output of <tt>uname -a</tt>.
+     */
+    final String uname;
+
+    /**
+     * Output of <tt>-version</tt> of each Java candidate, by the command.
+     */
+    private final Map<String, String> javas;
+
+    /**
+     * Absolute path that <tt>command -v</tt> resolved each Java candidate to, by the command.
+     */
+    private final Map<String, String> paths;
+
+    /**
+     * The Java candidates that were probed, in the order of preference.
+     */
+    final List<String> javaCommands;
+
+    private RemoteProbe(String junk, String environment, String uname, Map<String, String> javas,
+                        Map<String, String> paths, List<String> javaCommands) {
+        this.junk = junk;
+        this.environment = environment;
+        this.uname = uname;
+        this.javas = javas;
+        this.paths = paths;
+        this.javaCommands = javaCommands;
+    }
+
+    /**
+     * Returns the output of <tt>-version</tt> of the given Java candidate, or null if it wasn't probed.
+     */
+    String getJavaVersionOutput(String javaCommand) {
+        return javas.get(javaCommand);
+    }
+
+    /**
+     * Returns the absolute path the given Java candidate resolves to, such as where <tt>java</tt> is
+     * on the <tt>PATH</tt>, or null if it wasn't probed or doesn't resolve to anything.
+     */
+    String getJavaPath(String javaCommand) {
+        return paths.get(javaCommand);
+    }
+
+    /**
+     * Returns a new marker, unlikely to show up in the output by accident.
+     */
+    static String newMarker() {
+        return "@@ssh-slaves-" + UUID.randomUUID().toString().replace("-", "") + "@@";
+    }
+
+    /**
+     * Returns the command that runs the probe.
+     *
+     * <p>
+     * The script runs in <tt>sh</tt> regardless of the login shell, as we need to redirect stderr of
+     * <tt>java -version</tt> into stdout to keep it in order with our markers.
+     */
+    static String command(String marker, List<String> javaCommands, String jvmOptions) {
+        StringBuilder script = new StringBuilder();
+        section(script, marker, "BEGIN");
+        script.append("set; ");
+        section(script, marker, "UNAME");
+        script.append("uname -a; ");
+        for (int i = 0; i < javaCommands.size(); i++) {
+            section(script, marker, "JAVA " + i);
+            script.append(javaCommands.get(i)).append(' ').append(jvmOptions).append(" -version 2>&1; ");
+        }
+        for (int i = 0; i < javaCommands.size(); i++) {
+            section(script, marker, "PATH " + i);
+            script.append("command -v ").append(javaCommands.get(i)).append(" 2>/dev/null; ");
+        }
+        section(script, marker, "END");
+        return "sh -c " + quote(script.toString());
+    }
+
+    private static void section(StringBuilder script, String marker, String name) {
+        // leading newline in case the previous command didn't end its output with one
+        script.append("printf '\\n%s\\n' '").append(marker).append(name).append("'; ");
+    }
+
+    /**
+     * Quotes a string as a single argument for the shell.
+     */
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Cuts the output of {@link #command(String, List, String)} apart.
+     *
+     * @param output The stdout of the command.
+     * @param errors The stderr of the command, which is all junk as the script redirects what it expects.
+     * @return null if the output is incomplete, such as if there's no <tt>sh</tt> on the slave.
+     */
+    static RemoteProbe parse(String marker, String output, String errors, List<String> javaCommands) {
+        List<String> names = new ArrayList<String>();
+        List<String> sections = new ArrayList<String>();
+        String prefix = "\n" + marker;
+        int start = 0;
+        String name = null;
+        while (true) {
+            int m = output.indexOf(prefix, start);
+            if (m < 0) {
+                break;
+            }
+            int eol = output.indexOf('\n', m + prefix.length());
+            if (eol < 0) {
+                break;
+            }
+            names.add(name);
+            sections.add(output.substring(start, m));
+            name = output.substring(m + prefix.length(), eol);
+            start = eol + 1;
+        }
+        int n = javaCommands.size();
+        if (!"END".equals(name) || names.size() != 2 * n + 3) {
+            return null;
+        }
+
+        Map<String, String> javas = new HashMap<String, String>();
+        Map<String, String> paths = new HashMap<String, String>();
+        for (int i = 0; i < n; i++) {
+            if (!("JAVA " + i).equals(names.get(3 + i)) || !("PATH " + i).equals(names.get(3 + n + i))) {
+                return null;
+            }
+            javas.put(javaCommands.get(i), sections.get(3 + i));
+            String path = sections.get(3 + n + i).trim();
+            if (path.startsWith("/")) {
+                paths.put(javaCommands.get(i), path);
+            }
+        }
+        return new RemoteProbe(sections.get(0) + errors, sections.get(1), sections.get(2),
+                Collections.unmodifiableMap(javas), Collections.unmodifiableMap(paths),
+                Collections.unmodifiableList(new ArrayList<String>(javaCommands)));
+    }
+}
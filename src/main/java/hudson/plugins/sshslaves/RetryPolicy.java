@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Decides whether and when {@link SSHLauncher#openConnection} tries to connect again after a failure.
+ *
+ * <p>
+ * Waits grow exponentially from the configured retry wait time, and each one is drawn uniformly between zero
+ * and that ("full jitter"), so that hundreds of slaves that lost their connection at the same time don't all
+ * come knocking on the same bastion at the same time again. A total budget bounds the time spent
+ * waiting regardless of the number of retries.
+ */
+final class RetryPolicy {
+    /**
+     * Upper bound of a single wait, in seconds.
+     */
+    static /*non-final for script console*/ int MAX_WAIT_SECONDS =
+            Integer.getInteger(RetryPolicy.class.getName() + ".maxWaitSeconds", 300);
+
+    /**
+     * Upper bound of the time spent connecting and waiting across all retries, in seconds,
+     * unless the launch timeout is shorter.
+     */
+    static /*non-final for script console*/ int BUDGET_SECONDS =
+            Integer.getInteger(RetryPolicy.class.getName() + ".budgetSeconds", 900);
+
+    private final int maxRetries;
+    private final long baseMillis;
+    private final long capMillis;
+    private final long budgetMillis;
+    private final Random random;
+
+    /**
+     * @param maxRetries   Number of retries after the first attempt.
+     * @param baseMillis   Upper bound of the first wait. Doubles with every retry.
+     * @param capMillis    Upper bound of any wait.
+     * @param budgetMillis Upper bound of the total time, 0 or less for none.
+     */
+    RetryPolicy(int maxRetries, long baseMillis, long capMillis, long budgetMillis, Random random) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseMillis = Math.max(0, baseMillis);
+        this.capMillis = Math.max(this.baseMillis, capMillis);
+        this.budgetMillis = budgetMillis;
+        this.random = random;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt.
+     *
+     * @param failed       Number of attempts that have failed so far, including the one that just did.
+     * @param elapsedMillis Time spent since the first attempt started.
+     * @return -1 if we should give up.
+     */
+    long getDelayMillis(int failed, long elapsedMillis) {
+        if (failed > maxRetries) {
+            return -1;
+        }
+        long bound = baseMillis;
+        for (int i = 1; i < failed && bound < capMillis; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, capMillis);
+        long delay = bound == 0 ? 0 : (long) (random.nextDouble() * (bound + 1));
+        if (budgetMillis > 0 && elapsedMillis + delay >= budgetMillis) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * Whether the failure to connect looks like something that goes away by itself, such as the slave
+     * still booting, as opposed to something that needs fixing, such as an unknown host name.
+     */
+    static boolean isRetryable(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException
+                    || t instanceof NoRouteToHostException
+                    || t instanceof PortUnreachableException
+                    || t instanceof SocketTimeoutException
+                    || t instanceof EOFException) {
+                return true;
+            }
+            String message = t.getMessage() == null ? "" : t.getMessage().toLowerCase(Locale.ENGLISH);
+            if (t instanceof SocketException && message.contains("connection reset")) {
+                return true;
+            }
+            if (message.contains("connection refused")
+                    || message.contains("connection timed out")
+                    || message.contains("host is unreachable")
+                    || message.contains("no route to host")
+                    || message.contains("connection reset")
+                    // the server hung up on us during the handshake, such as when it's overloaded
+                    || message.contains("key exchange was not finished")
+                    || message.contains("premature connection close")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
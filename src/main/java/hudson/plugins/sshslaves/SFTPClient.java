@@ -30,19 +30,104 @@ import com.trilead.ssh2.SFTPv3FileAttributes;
 import com.trilead.ssh2.SFTPException;
 import com.trilead.ssh2.sftp.ErrorCodes;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import hudson.model.Computer;
 import hudson.util.IOException2;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 
 /**
  * TODO: moved to Jenkins core, so pick it up from there.
  * @author Kohsuke Kawaguchi
  */
 public class SFTPClient extends SFTPv3Client {
+    /**
+     * Number of write requests {@link #writeToFile(String)} keeps in flight before waiting for acknowledgements.
+     * 1 or less disables pipelining.
+     */
+    public static /*non-final for script console*/ int PIPELINE_WINDOW =
+            Integer.getInteger(SFTPClient.class.getName() + ".pipelineWindow", 16);
+
+    /**
+     * Number of read requests {@link #read(String)} keeps in flight ahead of the reader.
+     * 1 or less disables read-ahead.
+     */
+    public static /*non-final for script console*/ int READ_AHEAD_DEPTH =
+            Integer.getInteger(SFTPClient.class.getName() + ".readAheadDepth", 16);
+
+    /**
+     * Number of bytes {@link #read(String)} asks for in each read request.
+     */
+    public static /*non-final for script console*/ int READ_BLOCK_SIZE =
+            Integer.getInteger(SFTPClient.class.getName() + ".readBlockSize", PipelinedSFTPChannel.MAX_BLOCK_SIZE);
+
+    /**
+     * Files of at least this many bytes are copied by {@link #upload(File, String)} over several SFTP channels at once.
+     */
+    public static /*non-final for script console*/ long PARALLEL_UPLOAD_THRESHOLD =
+            Long.getLong(SFTPClient.class.getName() + ".parallelUploadThreshold", 32 * 1024 * 1024);
+
+    /**
+     * Number of SFTP channels {@link #upload(File, String)} splits large files across.
+     * 1 or less disables parallel uploads.
+     */
+    public static /*non-final for script console*/ int PARALLEL_UPLOAD_CHANNELS =
+            Integer.getInteger(SFTPClient.class.getName() + ".parallelUploadChannels", 4);
+
+    /**
+     * Number of bytes at the end of a partial upload that {@link #uploadResumable(File, String)} reads back
+     * and compares with the local file before carrying on from there.
+     */
+    public static /*non-final for script console*/ int RESUME_VERIFY_BYTES =
+            Integer.getInteger(SFTPClient.class.getName() + ".resumeVerifyBytes", 1024 * 1024);
+
+    /**
+     * Suffix of the file a resumable upload writes to before it's moved into place.
+     */
+    static final String PART_SUFFIX = ".part";
+
+    /**
+     * Suffix of the file a parallel upload writes to before it's moved into place. Unlike {@link #PART_SUFFIX},
+     * such a file can have holes anywhere if the upload was interrupted, so it's never resumed from.
+     */
+    static final String RANGES_SUFFIX = ".ranges";
+
+    /**
+     * Size of the blocks of a partial upload that are compared with the local file.
+     */
+    private static final int VERIFY_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Smallest range worth a channel of its own.
+     */
+    private static final long MIN_RANGE_SIZE = 4 * 1024 * 1024;
+
+    private final Connection conn;
+
+    /**
+     * Nanoseconds the last {@link #uploadResumable(Source, String)} spent streaming the data,
+     * leaving out checking and moving the <tt>.part</tt> file.
+     */
+    private long lastStreamingNanos;
+
     public SFTPClient(Connection conn) throws IOException {
         super(conn);
+        this.conn = conn;
     }
 
     /**
@@ -90,17 +175,55 @@ public class SFTPClient extends SFTPv3Client {
      * Creates a new file and writes to it.
      */
     public OutputStream writeToFile(String path) throws IOException {
-        final SFTPv3FileHandle h = createFile(path);
+        return writeToFile(path, PIPELINE_WINDOW);
+    }
+
+    /**
+     * Creates a new file and writes to it, keeping up to {@code window} write requests in flight.
+     *
+     * <p>
+     * Pipelined writes go through a separate SFTP channel, so if the server refuses to open
+     * one more channel we fall back to waiting for each write in turn.
+     */
+    public OutputStream writeToFile(String path, int window) throws IOException {
+        return writeToFile(path, 0, window);
+    }
+
+    /**
+     * Writes to the given file from {@code offset} onwards, creating it if necessary.
+     * The file is truncated first only if {@code offset} is 0.
+     */
+    private OutputStream writeToFile(String path, final long offset, int window) throws IOException {
+        if (window > 1) {
+            PipelinedSFTPChannel channel = null;
+            try {
+                channel = new PipelinedSFTPChannel(conn);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to open a pipelined SFTP channel, writing "+path+" synchronously", e);
+            }
+            if (channel != null) {
+                try {
+                    byte[] h = channel.open(path, PipelinedSFTPChannel.SSH_FXF_WRITE
+                            | PipelinedSFTPChannel.SSH_FXF_CREAT | (offset == 0 ? PipelinedSFTPChannel.SSH_FXF_TRUNC : 0));
+                    return channel.write(h, offset, window, true);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        }
+
+        final SFTPv3FileHandle h = offset == 0 ? createFileTruncate(path) : openFileRW(path);
         return new OutputStream() {
-            private long offset = 0;
+            private long position = offset;
             public void write(int b) throws IOException {
                 write(new byte[]{(byte)b});
             }
 
             @Override
             public void write(byte[] b, int off, int len) throws IOException {
-                SFTPClient.this.write(h,offset,b,off,len);
-                offset += len;
+                SFTPClient.this.write(h,position,b,off,len);
+                position += len;
             }
 
             @Override
@@ -110,16 +233,359 @@ public class SFTPClient extends SFTPv3Client {
         };
     }
 
+    /**
+     * Copies a local file to the given path, splitting files of {@link #PARALLEL_UPLOAD_THRESHOLD} bytes or more
+     * across {@link #PARALLEL_UPLOAD_CHANNELS} channels.
+     */
+    public void upload(File src, String path) throws IOException, InterruptedException {
+        upload(src, path, src.length() >= PARALLEL_UPLOAD_THRESHOLD ? PARALLEL_UPLOAD_CHANNELS : 1);
+    }
+
+    /**
+     * Copies a local file to the given path, writing disjoint ranges of it concurrently
+     * over up to {@code channels} SFTP channels on this connection, each with its own pipeline of writes.
+     *
+     * <p>
+     * If the server won't let us open at least two channels, the file is copied
+     * with {@link #writeToFile(String)} instead. Either way, the size of the copy is checked at the end.
+     */
+    public void upload(final File src, String path, int channels) throws IOException, InterruptedException {
+        final long size = src.length();
+        channels = (int) Math.max(1, Math.min(channels, size / MIN_RANGE_SIZE));
+
+        List<PipelinedSFTPChannel> opened = new ArrayList<PipelinedSFTPChannel>();
+        try {
+            while (opened.size() < channels) {
+                try {
+                    opened.add(new PipelinedSFTPChannel(conn));
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could only open " + opened.size() + " SFTP channels to upload " + path, e);
+                    break;
+                }
+            }
+            if (opened.size() < 2) {
+                for (PipelinedSFTPChannel c : opened) {
+                    c.close();
+                }
+                opened.clear();
+                copy(src, 0, size, writeToFile(path));
+            } else {
+                uploadRanges(src, path, opened);
+            }
+        } finally {
+            for (PipelinedSFTPChannel c : opened) {
+                c.close();
+            }
+        }
+
+        SFTPv3FileAttributes atts = _stat(path);
+        if (atts == null || atts.size == null || atts.size != size) {
+            throw new IOException("Copied " + (atts == null ? null : atts.size) + " bytes of " + src + " to " + path
+                    + " rather than " + size);
+        }
+    }
+
+    private void uploadRanges(final File src, String path, List<PipelinedSFTPChannel> channels)
+            throws IOException, InterruptedException {
+        final long size = src.length();
+        // keep the ranges aligned to whole write requests
+        long blocks = (size + PipelinedSFTPChannel.MAX_BLOCK_SIZE - 1) / PipelinedSFTPChannel.MAX_BLOCK_SIZE;
+        long rangeSize = (blocks + channels.size() - 1) / channels.size() * PipelinedSFTPChannel.MAX_BLOCK_SIZE;
+
+        // the first channel creates the file, so that the others don't truncate what it has written
+        byte[][] handles = new byte[channels.size()][];
+        handles[0] = channels.get(0).open(path, PipelinedSFTPChannel.SSH_FXF_WRITE
+                | PipelinedSFTPChannel.SSH_FXF_CREAT | PipelinedSFTPChannel.SSH_FXF_TRUNC);
+        for (int i = 1; i < handles.length; i++) {
+            handles[i] = channels.get(i).open(path, PipelinedSFTPChannel.SSH_FXF_WRITE);
+        }
+
+        List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < handles.length; i++) {
+                final long start = Math.min(size, i * rangeSize);
+                final long end = Math.min(size, start + rangeSize);
+                // closing the stream waits for every write to be acknowledged and closes the handle
+                final OutputStream out = channels.get(i).write(handles[i], start, PIPELINE_WINDOW, false);
+                ranges.add(Computer.threadPoolForRemoting.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        copy(src, start, end, out);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException2("Failed to copy " + src + " to " + path, e.getCause());
+        } finally {
+            // the callers close the channels, which fails whatever is still writing
+            for (Future<Void> range : ranges) {
+                range.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Copies a local file to the given path so that an interrupted copy can be picked up where it left off.
+     *
+     * <p>
+     * Files of {@link #PARALLEL_UPLOAD_THRESHOLD} bytes or more are copied over several channels as in
+     * {@link #upload(File, String)}, unless an earlier attempt to do that was interrupted, in which case
+     * they are copied one byte after the other like everything else.
+     *
+     * @return the number of bytes actually copied this time.
+     * @see #uploadResumable(Source, String)
+     */
+    public long uploadResumable(final File src, String path) throws IOException, InterruptedException {
+        String ranges = path + RANGES_SUFFIX;
+        if (exists(ranges)) {
+            // left by an interrupted parallel upload, whose ranges were written side by side and may have
+            // holes anywhere, so it can't be resumed. delete it and copy sequentially, which can be
+            rm(ranges);
+        } else if (src.length() >= PARALLEL_UPLOAD_THRESHOLD && PARALLEL_UPLOAD_CHANNELS > 1
+                && !exists(path + PART_SUFFIX)) {
+            upload(src, ranges, PARALLEL_UPLOAD_CHANNELS);
+            moveIntoPlace(ranges, path);
+            return src.length();
+        }
+        return uploadResumable(new Source() {
+            public long size() {
+                return src.length();
+            }
+
+            public InputStream open() throws IOException {
+                return new FileInputStream(src);
+            }
+        }, path);
+    }
+
+    /**
+     * Copies data to the given path by way of a <tt>.part</tt> file next to it, which is moved into place
+     * once it's complete.
+     *
+     * <p>
+     * If a <tt>.part</tt> file is already there, its last {@link #RESUME_VERIFY_BYTES} bytes are read back
+     * and compared with the data block by block, and the copy carries on from the end of the last block
+     * that matches. If even the first of those blocks doesn't match, the copy starts over.
+     *
+     * @return the number of bytes actually copied this time.
+     */
+    long uploadResumable(Source src, String path) throws IOException {
+        String part = path + PART_SUFFIX;
+        long size = src.size();
+
+        long offset = 0;
+        SFTPv3FileAttributes atts = _stat(part);
+        if (atts != null && atts.isRegularFile() && atts.size != null && atts.size > 0 && atts.size <= size) {
+            offset = resumeOffset(src, part, atts.size);
+        }
+
+        InputStream in = src.open();
+        try {
+            skipFully(in, offset);
+            long start = System.nanoTime();
+            OutputStream out = writeToFile(part, offset, PIPELINE_WINDOW);
+            try {
+                copy(in, out, size - offset);
+            } finally {
+                out.close();
+            }
+            lastStreamingNanos = System.nanoTime() - start;
+        } finally {
+            in.close();
+        }
+
+        atts = _stat(part);
+        if (atts == null || atts.size == null || atts.size != size) {
+            throw new IOException("Copied " + (atts == null ? null : atts.size) + " bytes to " + part
+                    + " rather than " + size);
+        }
+        moveIntoPlace(part, path);
+        return size - offset;
+    }
+
+    /**
+     * Returns how long the last {@link #uploadResumable(Source, String)} spent streaming the bytes it copied,
+     * in nanoseconds, for working out the throughput.
+     */
+    long getLastStreamingNanos() {
+        return lastStreamingNanos;
+    }
+
+    /**
+     * Works out how much of a partial upload of {@code partSize} bytes matches the data.
+     */
+    private long resumeOffset(Source src, String part, long partSize) throws IOException {
+        long start = Math.max(0, partSize - RESUME_VERIFY_BYTES) / VERIFY_BLOCK_SIZE * VERIFY_BLOCK_SIZE;
+        byte[] local = new byte[(int) (partSize - start)];
+        byte[] remote = new byte[local.length];
+
+        InputStream in = src.open();
+        try {
+            skipFully(in, start);
+            IOUtils.readFully(in, local);
+        } finally {
+            in.close();
+        }
+        in = read(part);
+        try {
+            skipFully(in, start);
+            IOUtils.readFully(in, remote);
+        } catch (EOFException e) {
+            // shrunk under our feet
+            return 0;
+        } finally {
+            in.close();
+        }
+
+        long offset = start;
+        for (int off = 0; off < local.length; off += VERIFY_BLOCK_SIZE) {
+            int len = Math.min(VERIFY_BLOCK_SIZE, local.length - off);
+            if (!equals(local, remote, off, len)) {
+                break;
+            }
+            offset += len;
+        }
+        if (offset == start && start > 0) {
+            // nothing we can vouch for before the blocks we looked at
+            return 0;
+        }
+        LOGGER.log(Level.FINE, "Resuming the upload to {0} from byte {1} of {2}", new Object[] {part, offset, partSize});
+        return offset;
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces {@code path} with {@code tmp} in one go where the slave has a POSIX <tt>mv</tt>,
+     * and by removing {@code path} first elsewhere.
+     */
+    private void moveIntoPlace(String tmp, String path) throws IOException {
+        try {
+            if (conn.exec("mv -f " + RemoteProbe.quote(tmp) + " " + RemoteProbe.quote(path), NULL_LOGGER) == 0) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while moving " + tmp + " to " + path);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to move " + tmp + " to " + path + " with mv", e);
+        }
+        if (exists(path)) {
+            rm(path);
+        }
+        mv(tmp, path);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long n) throws IOException {
+        byte[] buf = new byte[PipelinedSFTPChannel.MAX_BLOCK_SIZE];
+        while (n > 0) {
+            int len = in.read(buf, 0, (int) Math.min(buf.length, n));
+            if (len < 0) {
+                throw new EOFException(n + " bytes short");
+            }
+            out.write(buf, 0, len);
+            n -= len;
+        }
+    }
+
+    /**
+     * Data that {@link #uploadResumable(Source, String)} can read more than once.
+     */
+    interface Source {
+        long size();
+
+        /**
+         * Opens the data from its first byte.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Copies the bytes {@code [start,end)} of the given file to the stream, and closes it.
+     */
+    private static void copy(File src, long start, long end, OutputStream out) throws IOException {
+        try {
+            FileInputStream in = new FileInputStream(src);
+            try {
+                in.getChannel().position(start);
+                copy(in, out, end - start);
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens a file for reading.
+     */
     public InputStream read(String file) throws IOException {
+        return read(file, READ_BLOCK_SIZE, READ_AHEAD_DEPTH);
+    }
+
+    /**
+     * Opens a file for reading, keeping up to {@code depth} read requests of {@code blockSize} bytes
+     * in flight ahead of the reader.
+     *
+     * <p>
+     * Like {@link #writeToFile(String, int)}, this goes through a separate SFTP channel,
+     * and falls back to reading synchronously if that cannot be opened.
+     */
+    public InputStream read(final String file, int blockSize, int depth) throws IOException {
+        if (depth > 1) {
+            blockSize = Math.max(512, Math.min(blockSize, 256 * 1024));
+            PipelinedSFTPChannel channel = null;
+            try {
+                // the window needs to hold every response we have asked for, or the server will stall
+                channel = new PipelinedSFTPChannel(conn, depth * (blockSize + 64));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to open a pipelined SFTP channel, reading "+file+" synchronously", e);
+            }
+            if (channel != null) {
+                try {
+                    byte[] h = channel.open(file, PipelinedSFTPChannel.SSH_FXF_READ);
+                    return channel.read(h, channel.size(h), blockSize, depth, true);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        }
+
         final SFTPv3FileHandle h = openFileRO(file);
         return new InputStream() {
             private long offset = 0;
+            private long size = -1;
 
             public int read() throws IOException {
                 byte[] b = new byte[1];
                 if(read(b)<0)
                     return -1;
-                return b[0];
+                return b[0] & 0xFF;
             }
 
             @Override
@@ -132,6 +598,13 @@ public class SFTPClient extends SFTPv3Client {
 
             @Override
             public long skip(long n) throws IOException {
+                if (n <= 0)     return 0;
+                if (size < 0) {
+                    // don't skip past the end of the file
+                    SFTPv3FileAttributes atts = stat(file);
+                    size = atts.size == null ? Long.MAX_VALUE : atts.size;
+                }
+                n = Math.max(0, Math.min(n, size - offset));
                 offset += n;
                 return n;
             }
@@ -149,4 +622,8 @@ public class SFTPClient extends SFTPv3Client {
         setstat(path, atts);
     }
 
+    private static final PrintStream NULL_LOGGER = new PrintStream(new NullOutputStream());
+
+    private static final Logger LOGGER = Logger.getLogger(SFTPClient.class.getName());
+
 }
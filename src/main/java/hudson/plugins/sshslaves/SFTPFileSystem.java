@@ -26,7 +26,6 @@ package hudson.plugins.sshslaves;
 import com.trilead.ssh2.SFTPv3DirectoryEntry;
 import hudson.tools.JDKInstaller.FileSystem;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -53,7 +52,8 @@ class SFTPFileSystem implements FileSystem {
     }
 
     public InputStream read(String file) throws IOException {
-        return new BufferedInputStream(sftp.read(file));
+        // already buffered by the read-ahead
+        return sftp.read(file);
     }
 
     public List<String> listSubDirectories(String dir) throws IOException, InterruptedException {
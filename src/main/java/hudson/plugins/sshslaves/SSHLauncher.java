@@ -43,7 +43,6 @@ import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.trilead.ssh2.ChannelCondition;
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.SCPClient;
-import com.trilead.ssh2.SFTPv3Client;
 import com.trilead.ssh2.SFTPv3FileAttributes;
 import com.trilead.ssh2.Session;
 import com.trilead.ssh2.transport.TransportManager;
@@ -63,6 +62,7 @@ import hudson.security.ACL;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
 import hudson.slaves.NodeProperty;
+import hudson.slaves.OfflineCause;
 import hudson.slaves.NodePropertyDescriptor;
 import hudson.slaves.SlaveComputer;
 import hudson.tools.JDKInstaller;
@@ -76,13 +76,17 @@ import hudson.util.IOException2;
 import hudson.util.ListBoxModel;
 import hudson.util.NullStream;
 import hudson.util.Secret;
+import hudson.util.StreamCopyThread;
+import hudson.util.StreamTaskListener;
 import java.util.Collections;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.acegisecurity.context.SecurityContext;
 import org.acegisecurity.context.SecurityContextHolder;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.putty.PuTTYKey;
@@ -95,34 +99,34 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.InterruptedException;
 import java.lang.reflect.Field;
-import java.net.URL;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.*;
 import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
@@ -229,6 +233,49 @@ public class SSHLauncher extends ComputerLauncher {
      */
     private transient Session session;
 
+    /**
+     * Pings the slave over {@link #connection} while it's connected.
+     */
+    private transient volatile ConnectionMonitor monitor;
+
+    /**
+     * The Java command and the working directory the slave was last started with, for {@link #relaunch}.
+     */
+    private transient String relaunchJava, relaunchWorkingDirectory;
+
+    /**
+     * Identifies the period in which {@link #afterDisconnect} keeps {@link #connection} open for a {@link #relaunch},
+     * null if there is none.
+     */
+    private transient Object relaunchToken;
+
+    /**
+     * Throughput of the last copy of <tt>slave.jar</tt> to the slave in bytes per second, or -1 if none was measured,
+     * along with how many bytes that copy could have in flight at most. Used to size the {@link ChannelWindow}.
+     */
+    private transient double uploadBytesPerSecond = -1;
+    private transient long uploadInFlightLimit;
+
+    /**
+     * The window size of {@link #session}.
+     */
+    private transient int windowSize;
+
+    /**
+     * Times the phases of the launch in progress, if any.
+     */
+    private transient PhaseTimer phaseTimer;
+
+    /**
+     * What we found out about the slave during the launch in progress, if the probe worked.
+     */
+    private transient RemoteProbe probe;
+
+    /**
+     * The Java we resolved to last time, if it's still there, during the launch in progress.
+     */
+    private transient String cachedJava;
+
     /**
      * Field prefixStartSlaveCmd.
      */
@@ -703,31 +750,72 @@ public class SSHLauncher extends ComputerLauncher {
      */
     @Override
     public synchronized void launch(final SlaveComputer computer, final TaskListener listener) throws InterruptedException {
+        // we are about to copy slave.jar again
+        Teardown.cancelDeletes(computer.getName());
+        if (connection != null) {
+            // kept open by afterDisconnect
+            relaunchToken = null;
+            if (relaunch(computer, listener)) {
+                return;
+            }
+            cleanupConnection(listener);
+        }
+        relaunchJava = relaunchWorkingDirectory = null;
         connection = new Connection(host, port);
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        Set<Callable<Boolean>> callables = new HashSet<Callable<Boolean>>();
-        callables.add(new Callable<Boolean>() {
+        final Node node = computer.getNode();
+        final PhaseTimer timer = phaseTimer = new PhaseTimer(computer);
+        Callable<Boolean> callable = new Callable<Boolean>() {
             public Boolean call() throws InterruptedException {
                 Boolean rval = Boolean.FALSE;
                 try {
 
-                    openConnection(listener);
+                    if (!reuseSharedConnection(listener)) {
+                        timer.restart();
+                        openConnection(listener);
+                        if (SHARE_CONNECTIONS && credentialsId != null) {
+                            SharedConnections.register(getShareKey(), connection);
+                        }
+                    }
+                    PluginImpl.register(connection);
+
+                    timer.restart();
+                    List<String> javaCandidates = StringUtils.isNotBlank(javaPath)
+                            ? Collections.<String>emptyList() : getJavaCandidates(computer, listener);
+                    cachedJava = checkCachedJava(computer, listener, javaCandidates);
+                    probe = probe(computer, listener, javaCandidates);
+                    timer.completed(LaunchPhase.PROBE);
 
                     verifyNoHeaderJunk(listener);
+                    timer.completed(LaunchPhase.VERIFY_NO_HEADER_JUNK);
                     reportEnvironment(listener);
+                    timer.completed(LaunchPhase.REPORT_ENVIRONMENT);
 
                     String java = resolveJava(computer, listener);
+                    timer.completed(LaunchPhase.RESOLVE_JAVA);
+                    if (!java.equals(cachedJava)) {
+                        rememberJava(computer, java, javaCandidates);
+                    }
 
                     final String workingDirectory = getWorkingDirectory(computer);
                     if (workingDirectory == null) {
                         listener.error("Cannot get the working directory for " + computer);
                         return Boolean.FALSE;
                     }
-                    copySlaveJar(listener, workingDirectory);
+                    acquireSlot(LaunchScheduler.UPLOADS);
+                    try {
+                        copySlaveJar(listener, workingDirectory);
+                        timer.completed(LaunchPhase.COPY_SLAVE_JAR);
+                    } finally {
+                        LaunchScheduler.UPLOADS.release();
+                    }
 
                     startSlave(computer, listener, java, workingDirectory);
+                    timer.completed(LaunchPhase.START_SLAVE);
+                    timer.completedTotal();
 
-                    PluginImpl.register(connection);
+                    startMonitor(node);
+                    relaunchJava = java;
+                    relaunchWorkingDirectory = workingDirectory;
                     rval = Boolean.TRUE;
                 } catch (RuntimeException e) {
                     e.printStackTrace(listener.error(Messages.SSHLauncher_UnexpectedError()));
@@ -739,54 +827,225 @@ public class SSHLauncher extends ComputerLauncher {
                     return rval;
                 }
             }
-        });
+        };
 
-        final Node node = computer.getNode();
         final String nodeName = node != null ? node.getNodeName() : "unknown";
         try {
             long time = System.currentTimeMillis();
-            List<Future<Boolean>> results;
-            if (this.getLaunchTimeoutMillis() > 0) {
-                results = executorService.invokeAll(callables, this.getLaunchTimeoutMillis(), TimeUnit.MILLISECONDS);
-            } else {
-                results = executorService.invokeAll(callables);
-            }
+            Boolean res = runTimed(callable, timer);
             long duration = System.currentTimeMillis() - time;
-            Boolean res;
-            try {
-                res = results.get(0).get();
-            } catch (ExecutionException e) {
-                res = Boolean.FALSE;
-            }
             if (!res) {
-                System.out.println(Messages.SSHLauncher_LaunchFailedDuration(getTimestamp(),
+                if (cachedJava != null) {
+                    // maybe it wasn't so good after all
+                    JavaCache.remove(nodeName);
+                }
+                LOGGER.info(Messages.SSHLauncher_LaunchFailedDuration(getTimestamp(),
                         nodeName, host, duration));
                 listener.getLogger().println(getTimestamp() + " Launch failed - cleaning up connection");
                 cleanupConnection(listener);
             } else {
-                System.out.println(Messages.SSHLauncher_LaunchCompletedDuration(getTimestamp(),
+                LOGGER.info(Messages.SSHLauncher_LaunchCompletedDuration(getTimestamp(),
                         nodeName, host, duration));
             }
-            executorService.shutdown();
         } catch (InterruptedException e) {
-            System.out.println(Messages.SSHLauncher_LaunchFailed(getTimestamp(),
+            LOGGER.info(Messages.SSHLauncher_LaunchFailed(getTimestamp(),
                     nodeName, host));
+        } finally {
+            phaseTimer = null;
+            probe = null;
+            cachedJava = null;
         }
 
     }
 
+    /**
+     * Runs (part of) a launch, giving up on it after the {@link #getLaunchTimeoutMillis() launch timeout}.
+     *
+     * @return whether it succeeded in time.
+     */
+    private Boolean runTimed(Callable<Boolean> callable, PhaseTimer timer) throws InterruptedException {
+        // shared pool rather than a thread per launch, as there can be a lot of these in flight
+        Future<Boolean> result = Computer.threadPoolForRemoting.submit(callable);
+        try {
+            if (this.getLaunchTimeoutMillis() > 0) {
+                return awaitLaunch(result, timer, this.getLaunchTimeoutMillis());
+            } else {
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            return Boolean.FALSE;
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            return Boolean.FALSE;
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        }
+    }
+
     /**
      * Called to terminate the SSH connection. Used liberally when we back out from an error.
      */
     private void cleanupConnection(TaskListener listener) {
+        stopMonitor();
         // we might be called multiple times from multiple finally/catch block, 
         if (connection!=null) {
-            connection.close();
+            // other launchers may still have their slaves running over a shared connection
+            if (SharedConnections.release(connection)) {
+                PluginImpl.unregister(connection);
+                connection.close();
+                listener.getLogger().println(Messages.SSHLauncher_ConnectionClosed(getTimestamp()));
+            }
             connection = null;
-            listener.getLogger().println(Messages.SSHLauncher_ConnectionClosed(getTimestamp()));
         }
     }
 
+    /**
+     * Starts pinging the slave now that it's connected.
+     */
+    private void startMonitor(Node node) {
+        // a shared connection has one monitor for all of its slaves
+        ConnectionMonitor m = SharedConnections.monitor(connection);
+        if (m == null) {
+            m = ConnectionMonitor.start(connection, node != null ? node.getNodeName() : host);
+        }
+        if (m != null && ChannelWindow.RETUNE && session != null) {
+            m.retune(session, uploadBytesPerSecond, uploadInFlightLimit, windowSize);
+        }
+        monitor = m;
+    }
+
+    /**
+     * Stops pinging the slave, unless other slaves share the connection, in which case
+     * the monitor goes on for them until the last one {@link SharedConnections#release releases} it.
+     */
+    private void stopMonitor() {
+        ConnectionMonitor m = monitor;
+        if (m == null) {
+            return;
+        }
+        monitor = null;
+        m.untune(session);
+        if (connection == null || SharedConnections.getReferences(connection) == 0) {
+            m.stop();
+        }
+    }
+
+    /**
+     * Returns the key connections of this launcher are {@link SharedConnections shared} under, which changes
+     * when the credentials are edited.
+     */
+    private String getShareKey() {
+        return SharedConnections.key(host, port, credentialsId, SharedConnections.fingerprint(getCredentials()));
+    }
+
+    /**
+     * Starts the slave again over the connection {@link #afterDisconnect} kept open,
+     * skipping the handshake and everything else that can't have changed since the last launch.
+     *
+     * @return false if that's not possible, in which case a full launch is needed.
+     */
+    private boolean relaunch(final SlaveComputer computer, final TaskListener listener) throws InterruptedException {
+        final String java = relaunchJava;
+        final String workingDirectory = relaunchWorkingDirectory;
+        if (java == null || !workingDirectory.equals(getWorkingDirectory(computer))
+                || getTransportLossCause(connection) != null) {
+            return false;
+        }
+        listener.getLogger().println(Messages.SSHLauncher_Relaunching(getTimestamp(), host + ":" + port));
+        final PhaseTimer timer = phaseTimer = new PhaseTimer(computer);
+        try {
+            // a slave that hangs before it says hello mustn't block the launch forever
+            Boolean res = runTimed(new Callable<Boolean>() {
+                public Boolean call() throws InterruptedException {
+                    try {
+                        startSlave(computer, listener, java, workingDirectory);
+                        timer.completed(LaunchPhase.START_SLAVE);
+                        timer.completedTotal();
+                        startMonitor(computer.getNode());
+                        return Boolean.TRUE;
+                    } catch (IOException e) {
+                        e.printStackTrace(listener.getLogger());
+                        return Boolean.FALSE;
+                    }
+                }
+            }, timer);
+            if (!res) {
+                listener.error(Messages.SSHLauncher_RelaunchFailed(getTimestamp()));
+                if (session != null) {
+                    session.close();
+                    session = null;
+                }
+            }
+            return res;
+        } finally {
+            phaseTimer = null;
+        }
+    }
+
+    /**
+     * Keeps {@link #connection} open for {@link #RELAUNCH_TIMEOUT} seconds so that the next launch can {@link #relaunch},
+     * and closes it after that unless it has been used by then.
+     * This is only done when the remoting channel died on its own, not when the master disconnected the slave,
+     * such as when a user asked for it or the node was deleted, as no relaunch is coming then.
+     *
+     * @return false if the connection can't be reused, in which case the caller should close it.
+     */
+    private boolean keepForRelaunch(SlaveComputer computer, TaskListener listener) {
+        if (RELAUNCH_TIMEOUT <= 0 || relaunchJava == null || !CACHE_SLAVE_JAR) {
+            return false;
+        }
+        if (computer.getNode() == null || !(computer.getOfflineCause() instanceof OfflineCause.ChannelTermination)) {
+            return false;
+        }
+        final Object token = new Object();
+        relaunchToken = token;
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                synchronized (SSHLauncher.this) {
+                    if (relaunchToken == token) {
+                        relaunchToken = null;
+                        cleanupConnection(TaskListener.NULL);
+                    }
+                }
+            }
+        }, RELAUNCH_TIMEOUT, TimeUnit.SECONDS);
+        listener.getLogger().println(Messages.SSHLauncher_KeepingConnection(getTimestamp(), RELAUNCH_TIMEOUT));
+        return true;
+    }
+
+    /**
+     * Switches {@link #connection} to one that another launcher going to the same host with the same credentials
+     * has already opened and authenticated, if {@link #SHARE_CONNECTIONS sharing} is on.
+     *
+     * @return false if there's none that's still alive, in which case we need to open our own.
+     */
+    private boolean reuseSharedConnection(TaskListener listener) {
+        if (!SHARE_CONNECTIONS || credentialsId == null) {
+            return false;
+        }
+        Connection shared = SharedConnections.acquire(getShareKey());
+        if (shared == null) {
+            return false;
+        }
+        try {
+            // cheap way to make sure that the peer is still there
+            shared.openSession().close();
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Shared connection to " + host + ":" + port + " is dead, opening a new one", e);
+            SharedConnections.discard(shared);
+            if (SharedConnections.release(shared)) {
+                PluginImpl.unregister(shared);
+                shared.close();
+            }
+            return false;
+        }
+        connection = shared;
+        listener.getLogger().println(Messages.SSHLauncher_ReusingConnection(getTimestamp(), host + ":" + port,
+                SharedConnections.getReferences(shared) - 1));
+        return true;
+    }
+
     /**
      * return javaPath if specified in the configuration.
      * Finds local Java, and if none exist, install one.
@@ -797,14 +1056,20 @@ public class SSHLauncher extends ComputerLauncher {
             return expandExpression(computer, javaPath);
         }
 
+        if (cachedJava != null) {
+            return cachedJava;
+        }
+
         final String workingDirectory = getWorkingDirectory(computer);
         if (workingDirectory == null) {
             throw new IOException2("Cannot retrieve a working directory of " + computer, null);
         }
 
         List<String> tried = new ArrayList<String>();
-        for (JavaProvider provider : JavaProvider.all()) {
-            for (String javaCommand : provider.getJavas(computer, listener, connection)) {
+        RemoteProbe probe = this.probe;
+        if (probe != null) {
+            // the probe already has the answers, so this doesn't cost any round trips
+            for (String javaCommand : probe.javaCommands) {
                 LOGGER.fine("Trying Java at "+javaCommand);
                 try {
                     tried.add(javaCommand);
@@ -814,6 +1079,11 @@ public class SSHLauncher extends ComputerLauncher {
                     // try the next one
                 }
             }
+        } else {
+            String java = checkJavaVersions(listener, getJavaCandidates(computer, listener), tried);
+            if (java != null) {
+                return java;
+            }
         }
 
         // attempt auto JDK installation
@@ -824,6 +1094,258 @@ public class SSHLauncher extends ComputerLauncher {
         }
     }
 
+    /**
+     * Checks the given Java candidates concurrently, each in its own session on {@link #connection},
+     * and returns the first one in the given order that works.
+     *
+     * <p>
+     * The output of each check is held back and reported in order, so the log reads as if
+     * we had checked them one by one and stopped at the first good one.
+     *
+     * @param tried The candidates that we looked at are added here.
+     * @return null if none of them works.
+     */
+    @CheckForNull
+    private String checkJavaVersions(TaskListener listener, List<String> javas, List<String> tried)
+            throws InterruptedException {
+        int threads = Math.min(javas.size(), MAX_CONCURRENT_JAVA_CHECKS);
+        if (threads <= 1) {
+            for (String javaCommand : javas) {
+                LOGGER.fine("Trying Java at "+javaCommand);
+                try {
+                    tried.add(javaCommand);
+                    return checkJavaVersion(listener, javaCommand);
+                } catch (IOException e) {
+                    LOGGER.log(FINE, "Failed to check the Java version",e);
+                    // try the next one
+                }
+            }
+            return null;
+        }
+
+        // the shared pool doesn't limit the number of threads, so the checks take turns for a permit
+        final Semaphore permits = new Semaphore(threads, true); // fair, so the preferred ones go first
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        final List<ByteArrayOutputStream> logs = new ArrayList<ByteArrayOutputStream>();
+        try {
+            for (final String javaCommand : javas) {
+                final ByteArrayOutputStream log = new ByteArrayOutputStream();
+                logs.add(log);
+                results.add(Computer.threadPoolForRemoting.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        permits.acquire();
+                        try {
+                            return checkJavaVersion(new StreamTaskListener(log), javaCommand);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < javas.size(); i++) {
+                LOGGER.fine("Trying Java at "+javas.get(i));
+                tried.add(javas.get(i));
+                try {
+                    String java = results.get(i).get();
+                    logs.get(i).writeTo(listener.getLogger());
+                    return java;
+                } catch (ExecutionException e) {
+                    logs.get(i).writeTo(listener.getLogger());
+                    Throwable cause = e.getCause();
+                    if (!(cause instanceof IOException)) {
+                        // only a Java that doesn't work is a reason to try the next one
+                        if (cause instanceof InterruptedException) {
+                            throw (InterruptedException) cause;
+                        }
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                    LOGGER.log(FINE, "Failed to check the Java version",cause);
+                    // try the next one
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            // writing to the listener failed. nothing we can do about it
+            LOGGER.log(FINE, "Failed to report the Java version checks", e);
+            return null;
+        } finally {
+            for (Future<String> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Checks if the Java that the last launch of this node resolved to is still there, unchanged.
+     *
+     * @return the path to that Java, or null if we need to look for Java again.
+     */
+    @CheckForNull
+    private String checkCachedJava(SlaveComputer computer, TaskListener listener, List<String> javaCandidates) {
+        Node node = computer.getNode();
+        if (node == null || StringUtils.isNotBlank(javaPath)) {
+            return null;
+        }
+        JavaCache.Entry entry = JavaCache.get(node.getNodeName());
+        if (entry == null) {
+            return null;
+        }
+        if (!JavaCache.Entry.digestOf(javaCandidates).equals(entry.candidates)) {
+            // the node now looks for Java elsewhere, which may well be a better one
+            LOGGER.log(FINE, "Java candidates of {0} changed, forgetting {1}", new Object[] {node.getNodeName(), entry.path});
+            JavaCache.remove(node.getNodeName());
+            return null;
+        }
+        try {
+            SFTPClient sftp = new SFTPClient(connection);
+            try {
+                SFTPv3FileAttributes attrs = sftp._stat(entry.path);
+                if (attrs != null && attrs.size != null && attrs.mtime != null
+                        && attrs.size == entry.size && attrs.mtime == entry.mtime) {
+                    listener.getLogger().println(Messages.SSHLauncher_UsingCachedJava(getTimestamp(), entry.path,
+                            entry.version == null ? "?" : entry.version));
+                    return entry.path;
+                }
+            } finally {
+                sftp.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to check the cached Java of " + node.getNodeName(), e);
+        }
+        JavaCache.remove(node.getNodeName());
+        return null;
+    }
+
+    /**
+     * Records the Java we resolved to, so that the next launch can skip looking for it.
+     *
+     * @param javaCandidates What the node had to choose from, so that we notice when that changes.
+     */
+    private void rememberJava(SlaveComputer computer, String java, List<String> javaCandidates)
+            throws InterruptedException {
+        Node node = computer.getNode();
+        if (node == null || StringUtils.isNotBlank(javaPath)) {
+            return;
+        }
+        RemoteProbe probe = this.probe;
+        // we can only stat an absolute path, so find out where something like "java" is on the PATH
+        String path = java;
+        if (!path.startsWith("/") || path.contains("$")) {
+            path = probe != null ? probe.getJavaPath(java) : resolveCommand(java);
+            if (path == null) {
+                return;
+            }
+        }
+        try {
+            SFTPClient sftp = new SFTPClient(connection);
+            try {
+                SFTPv3FileAttributes attrs = sftp._stat(path);
+                if (attrs == null || attrs.size == null || attrs.mtime == null) {
+                    return;
+                }
+                String output = probe != null ? probe.getJavaVersionOutput(java) : null;
+                JavaCache.put(node.getNodeName(), new JavaCache.Entry(path, getJavaVersion(output),
+                        attrs.size, attrs.mtime, JavaCache.Entry.digestOf(javaCandidates)));
+            } finally {
+                sftp.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to remember the Java of " + node.getNodeName(), e);
+        }
+    }
+
+    /**
+     * Returns the absolute path <tt>command -v</tt> finds the given command at on the slave, or null.
+     */
+    @CheckForNull
+    private String resolveCommand(String command) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (connection.exec("command -v " + command + " 2>/dev/null", out) != 0) {
+                return null;
+            }
+            String path = out.toString(Charset.defaultCharset().name()).trim();
+            return path.startsWith("/") ? path : null;
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to find " + command + " on " + host, e);
+            return null;
+        }
+    }
+
+    /**
+     * Picks the version out of the output of <tt>java -version</tt>.
+     */
+    @CheckForNull
+    private static String getJavaVersion(@CheckForNull String output) {
+        if (output == null) {
+            return null;
+        }
+        for (String line : output.split("\n")) {
+            int i = line.indexOf(" version \"");
+            if (i >= 0 && line.lastIndexOf('"') > i + 10) {
+                return line.substring(i + 10, line.lastIndexOf('"'));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the possible locations of Java, from all the {@link JavaProvider}s, in the order we prefer them.
+     */
+    private List<String> getJavaCandidates(SlaveComputer computer, TaskListener listener) {
+        List<String> javas = new ArrayList<String>();
+        for (JavaProvider provider : JavaProvider.all()) {
+            javas.addAll(provider.getJavas(computer, listener, connection));
+        }
+        return javas;
+    }
+
+    /**
+     * Runs one script on the slave that collects everything {@link #verifyNoHeaderJunk(TaskListener)},
+     * {@link #reportEnvironment(TaskListener)}, {@link #resolveJava(SlaveComputer, TaskListener)} and
+     * {@link #attemptToInstallJDK(TaskListener, String)} want to know, saving a session per question.
+     *
+     * @return null if the probe didn't work, in which case everyone asks for themselves.
+     */
+    @CheckForNull
+    private RemoteProbe probe(SlaveComputer computer, TaskListener listener, List<String> javaCandidates)
+            throws InterruptedException {
+        List<String> javas = StringUtils.isNotBlank(javaPath) || cachedJava != null
+                ? Collections.<String>emptyList() : javaCandidates;
+        String marker = RemoteProbe.newMarker();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try {
+            Session s = connection.openSession();
+            try {
+                s.execCommand(RemoteProbe.command(marker, javas, getJvmOptions()));
+                s.getStdin().close();
+                Thread t = new StreamCopyThread("stderr copier of the probe of " + host, s.getStderr(), err);
+                t.start();
+                IOUtils.copy(s.getStdout(), out);
+                t.join();
+            } finally {
+                s.close();
+            }
+            //TODO: Seems we need to retrieve the encoding from the connection destination
+            RemoteProbe r = RemoteProbe.parse(marker, out.toString(Charset.defaultCharset().name()),
+                    err.toString(Charset.defaultCharset().name()), javas);
+            if (r == null) {
+                LOGGER.log(FINE, "Incomplete output from the probe of {0}:\n{1}{2}", new Object[]{host, out, err});
+            }
+            return r;
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to probe " + host, e);
+            return null;
+        }
+    }
+
     private String expandExpression(SlaveComputer computer, String expression) {
         return getEnvVars(computer).expand(expression);
     }
@@ -871,14 +1393,19 @@ public class SSHLauncher extends ComputerLauncher {
      * Makes sure that SSH connection won't produce any unwanted text, which will interfere with sftp execution.
      */
     private void verifyNoHeaderJunk(TaskListener listener) throws IOException, InterruptedException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        connection.exec("true",baos);
         final String s;
-        //TODO: Seems we need to retrieve the encoding from the connection destination
-        try {
-            s = baos.toString(Charset.defaultCharset().name());
-        } catch (UnsupportedEncodingException ex) { // Should not happen
-            throw new IOException("Default encoding is unsupported", ex);
+        RemoteProbe probe = this.probe;
+        if (probe != null) {
+            s = probe.junk;
+        } else {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            connection.exec("true",baos);
+            //TODO: Seems we need to retrieve the encoding from the connection destination
+            try {
+                s = baos.toString(Charset.defaultCharset().name());
+            } catch (UnsupportedEncodingException ex) { // Should not happen
+                throw new IOException("Default encoding is unsupported", ex);
+            }
         }
         
         if (s.length()!=0) {
@@ -897,7 +1424,11 @@ public class SSHLauncher extends ComputerLauncher {
      */
     private String attemptToInstallJDK(TaskListener listener, String workingDirectory) throws IOException, InterruptedException {
         ByteArrayOutputStream unameOutput = new ByteArrayOutputStream();
-        if (connection.exec("uname -a",new TeeOutputStream(unameOutput,listener.getLogger()))!=0)
+        RemoteProbe probe = this.probe;
+        if (probe != null) {
+            listener.getLogger().print(probe.uname);
+            unameOutput.write(probe.uname.getBytes(Charset.defaultCharset().name()));
+        } else if (connection.exec("uname -a",new TeeOutputStream(unameOutput,listener.getLogger()))!=0)
             throw new IOException("Failed to run 'uname' to obtain the environment");
 
         // guess the platform from uname output. I don't use the specific options because I'm not sure
@@ -933,24 +1464,106 @@ public class SSHLauncher extends ComputerLauncher {
         if (p==null || cpu==null)
             throw new IOException(Messages.SSHLauncher_FailedToDetectEnvironment(uname));
 
-        String javaDir = workingDirectory + "/jdk"; // this is where we install Java to
+        String jdkDir = workingDirectory + "/jdk";
+        String version = (getJDKInstaller().id + "-" + p + "-" + cpu).replaceAll("[^A-Za-z0-9._-]", "_");
+        String javaDir = jdkDir + "/" + version; // this is where we install Java to
         String bundleFile = workingDirectory + "/" + p.bundleFileName; // this is where we download the bundle to
 
         SFTPClient sftp = new SFTPClient(connection);
-        // wipe out and recreate the Java directory
-        connection.exec("rm -rf "+javaDir,listener.getLogger());
+        if (sftp.exists(javaDir + "/" + JDK_INSTALLED_MARKER)) {
+            // a failed probe is not a reason to throw away a complete install, as long as it works
+            try {
+                String java = checkJavaVersion(listener, javaDir + "/bin/java");
+                listener.getLogger().println(Messages.SSHLauncher_ReusingInstalledJDK(getTimestamp(), javaDir));
+                setCurrentJDK(listener, jdkDir, version);
+                return java;
+            } catch (IOException e) {
+                LOGGER.log(FINE, "Failed to check the JDK installed in " + javaDir, e);
+                listener.getLogger().println(Messages.SSHLauncher_InstalledJDKUnusable(getTimestamp(), javaDir));
+            }
+        }
+        // wipe out whatever an interrupted install of this version left behind, leaving other versions alone
+        connection.exec("rm -rf "+RemoteProbe.quote(javaDir),listener.getLogger());
         sftp.mkdirs(javaDir, 0755);
 
-        URL bundle = getJDKInstaller().locate(listener, p, cpu);
+        File bundle = JDKBundleCache.get().get(getJDKInstaller(), p, cpu, listener);
+        try {
+            listener.getLogger().println("Installing " + JDKVERSION);
+            boolean extracted = false;
+            if (STREAM_JDK_INSTALL && (p == Platform.LINUX || p == Platform.SOLARIS) && isGzip(bundle)) {
+                extracted = extractJDK(connection, listener, bundle, javaDir, sftp);
+                if (!extracted) {
+                    // start over the way JDKInstaller does it
+                    connection.exec("rm -rf "+RemoteProbe.quote(javaDir),listener.getLogger());
+                    sftp.mkdirs(javaDir, 0755);
+                }
+            }
+            if (!extracted) {
+                PluginImpl.transferred(connection, sftp.uploadResumable(bundle, bundleFile));
+                sftp.chmod(bundleFile,0755);
 
-        listener.getLogger().println("Installing " + JDKVERSION);
-        Util.copyStreamAndClose(bundle.openStream(),new BufferedOutputStream(sftp.writeToFile(bundleFile),32*1024));
-        sftp.chmod(bundleFile,0755);
+                getJDKInstaller().install(new RemoteLauncher(listener,connection),p,new SFTPFileSystem(sftp),listener, javaDir,bundleFile);
+            }
+        } finally {
+            JDKBundleCache.get().release(bundle);
+        }
 
-        getJDKInstaller().install(new RemoteLauncher(listener,connection),p,new SFTPFileSystem(sftp),listener, javaDir,bundleFile);
+        // only written once the install is complete, so an interrupted one is never mistaken for a usable JDK
+        OutputStream marker = sftp.writeToFile(javaDir + "/" + JDK_INSTALLED_MARKER);
+        try {
+            marker.write((version + "\n").getBytes("UTF-8"));
+        } finally {
+            marker.close();
+        }
+        setCurrentJDK(listener, jdkDir, version);
         return javaDir+"/bin/java";
     }
 
+    /**
+     * Reads {@code jdk/current} in the given working directory over SFTP, rather than having the shell of the slave
+     * do it, as that may not be a POSIX one.
+     *
+     * @return the directory under {@code jdk} of the JDK {@link #attemptToInstallJDK} installed last,
+     *         or null if there's none or it can't be read.
+     */
+    @CheckForNull
+    static String getCurrentJDK(Connection connection, String workingDirectory) {
+        String path = workingDirectory + "/jdk/current";
+        try {
+            SFTPClient sftp = new SFTPClient(connection);
+            try {
+                if (!sftp.exists(path)) {
+                    return null;
+                }
+                InputStream in = sftp.read(path);
+                try {
+                    String version = IOUtils.toString(in, "UTF-8").trim();
+                    // written by setCurrentJDK, so anything else means it's been tampered with
+                    return version.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*") ? version : null;
+                } finally {
+                    in.close();
+                }
+            } finally {
+                sftp.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to read " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Points {@code jdk/current} at the given install, replacing the previous pointer atomically,
+     * so that {@link DefaultJavaProvider} finds it on the next launch.
+     */
+    private void setCurrentJDK(TaskListener listener, String jdkDir, String version) throws IOException, InterruptedException {
+        int exitStatus = connection.exec("cd " + RemoteProbe.quote(jdkDir) + " && echo " + RemoteProbe.quote(version)
+                + " > current.tmp && mv -f current.tmp current", listener.getLogger());
+        if (exitStatus != 0) {
+            LOGGER.log(FINE, "Could not update {0}/current, exit status {1}", new Object[] {jdkDir, exitStatus});
+        }
+    }
+
     /**
      * Starts the slave process.
      *
@@ -963,8 +1576,10 @@ public class SSHLauncher extends ComputerLauncher {
      */
     private void startSlave(SlaveComputer computer, final TaskListener listener, String java,
                             String workingDirectory) throws IOException {
+        long start = System.nanoTime();
         session = connection.openSession();
-        expandChannelBufferSize(session,listener);
+        // opening a session takes a round trip, which makes for a free measurement
+        expandChannelBufferSize(session, listener, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         String cmd = "cd \"" + workingDirectory + "\" && " + java + " " + getJvmOptions() + " -jar slave.jar";
 
         //This will wrap the cmd with prefix commands and suffix commands if they are set.
@@ -991,14 +1606,87 @@ public class SSHLauncher extends ComputerLauncher {
         }
     }
 
-    private void expandChannelBufferSize(Session session, TaskListener listener) {
-            // see hudson.remoting.Channel.PIPE_WINDOW_SIZE for the discussion of why 1MB is in the right ball park
-            // but this particular session is where all the master/slave communication will happen, so
-            // it's worth using a bigger buffer to really better utilize bandwidth even when the latency is even larger
-            // (and since we are draining this pipe very rapidly, it's unlikely that we'll actually accumulate this much data)
-            int sz = 4;
-            session.setWindowSize(sz*1024*1024);
-            listener.getLogger().println("Expanded the channel window size to "+sz+"MB");
+    private void expandChannelBufferSize(Session session, TaskListener listener, long roundTripMillis) {
+        // see hudson.remoting.Channel.PIPE_WINDOW_SIZE for the discussion of why 1MB is in the right ball park
+        // but this particular session is where all the master/slave communication will happen, so
+        // it's worth sizing it to what the link can carry: big enough to fill it even when the latency is large,
+        // but no bigger, as the master has to be ready to buffer that much for every slave
+        int size = ChannelWindow.size(roundTripMillis, uploadBytesPerSecond, uploadInFlightLimit);
+        session.setWindowSize(size);
+        windowSize = size;
+        listener.getLogger().println("Set the channel window size to " + size / 1024 + "KB (round trip " + roundTripMillis
+                + "ms, " + (uploadBytesPerSecond > 0 ? (long) (uploadBytesPerSecond / 1024) + "KB/s" : "unknown bandwidth")
+                + ")");
+    }
+
+    /**
+     * Whether the given file is gzip-compressed, like the tar.gz bundles of JDK 7 and later.
+     */
+    private static boolean isGzip(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Extracts a tar.gz JDK bundle into the given directory on the slave as it is being copied there, by piping it
+     * into <tt>tar</tt>, instead of copying it first and extracting it after, as {@link JDKInstaller#install} does.
+     * The bundle is never written to the disk of the slave.
+     *
+     * @param conn The connection to the slave, where <tt>sftp</tt> runs as well.
+     * @return false if that didn't work, in which case the caller should clean up the directory and install the
+     *      JDK the usual way.
+     */
+    boolean extractJDK(Connection conn, TaskListener listener, File bundle, String javaDir, SFTPClient sftp)
+            throws IOException, InterruptedException {
+        Session session = conn.openSession();
+        try {
+            session.execCommand("cd " + RemoteProbe.quote(javaDir) + " && gzip -dc | tar xf -");
+            session.pipeStderr(new DelegateNoCloseOutputStream(listener.getLogger()));
+            OutputStream os = session.getStdin();
+            InputStream in = new FileInputStream(bundle);
+            long sent = 0;
+            try {
+                byte[] buf = new byte[32 * 1024];
+                int len;
+                while ((len = in.read(buf)) >= 0) {
+                    os.write(buf, 0, len);
+                    sent += len;
+                }
+            } finally {
+                in.close();
+                os.close();
+                PluginImpl.transferred(conn, sent);
+            }
+            session.waitForCondition(ChannelCondition.EXIT_STATUS, 0);
+            Integer exitStatus = session.getExitStatus();
+            if (exitStatus == null || exitStatus != 0) {
+                listener.getLogger().println(Messages.SSHLauncher_StreamingJDKInstallFailed(getTimestamp(), exitStatus));
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace(listener.error(Messages.SSHLauncher_StreamingJDKInstallFailed(getTimestamp(), null)));
+            return false;
+        } finally {
+            session.close();
+        }
+
+        // the JDK creates its own sub-directory, so pull it up like JDKInstaller does
+        SFTPFileSystem fs = new SFTPFileSystem(sftp);
+        List<String> paths = new ArrayList<String>();
+        for (String s : fs.listSubDirectories(javaDir)) {
+            if (s.matches("j(2s)?dk.*")) {
+                paths.add(s);
+            }
+        }
+        if (paths.size() != 1) {
+            throw new AbortException("Failed to find the extracted JDKs: " + paths);
+        }
+        fs.pullUp(javaDir + '/' + paths.get(0), javaDir);
+        return true;
     }
 
     /**
@@ -1027,10 +1715,15 @@ public class SSHLauncher extends ComputerLauncher {
                     throw new IOException(Messages.SSHLauncher_RemoteFSIsAFile(workingDirectory));
                 }
 
+                String checksumFileName = fileName + SlaveJar.CHECKSUM_SUFFIX;
+                if (CACHE_SLAVE_JAR && isSlaveJarUpToDate(sftpClient, fileName, checksumFileName)) {
+                    listener.getLogger().println(Messages.SSHLauncher_SlaveJarUpToDate(getTimestamp()));
+                    return;
+                }
+
                 try {
-                    // try to delete the file in case the slave we are copying is shorter than the slave
-                    // that is already there
-                    sftpClient.rm(fileName);
+                    // the checksum goes first so that an interrupted copy is never mistaken for a good one
+                    sftpClient.rm(checksumFileName);
                 } catch (IOException e) {
                     // the file did not exist... so no need to delete it!
                 }
@@ -1038,14 +1731,28 @@ public class SSHLauncher extends ComputerLauncher {
                 listener.getLogger().println(Messages.SSHLauncher_CopyingSlaveJar(getTimestamp()));
 
                 try {
-                    byte[] slaveJar = new Slave.JnlpJar("slave.jar").readFully();
-                    OutputStream os = sftpClient.writeToFile(fileName);
-                    try {
-                        os.write(slaveJar);
-                    } finally {
-                        os.close();
+                    if (!COMPRESS_SLAVE_JAR || !copySlaveJarCompressed(listener, fileName)) {
+                        // picks up where an interrupted copy left off, and only replaces slave.jar once complete
+                        long copied = sftpClient.uploadResumable(SlaveJar.get(), fileName);
+                        // leaves out checking a partial copy and moving it into place, which would skew the throughput
+                        long nanos = sftpClient.getLastStreamingNanos();
+                        if (copied >= 64 * 1024 && nanos > 0) {
+                            // big enough for the throughput to mean something
+                            uploadBytesPerSecond = copied * 1e9 / nanos;
+                            uploadInFlightLimit = (long) SFTPClient.PIPELINE_WINDOW * PipelinedSFTPChannel.MAX_BLOCK_SIZE;
+                        }
+                        listener.getLogger().println(Messages.SSHLauncher_CopiedXXXBytes(getTimestamp(), copied));
+                        PluginImpl.transferred(connection, copied);
+                    }
+
+                    if (CACHE_SLAVE_JAR) {
+                        OutputStream os = sftpClient.writeToFile(checksumFileName, 1); // too small to be worth a pipelined channel
+                        try {
+                            os.write(SlaveJar.get().digest.getBytes("US-ASCII"));
+                        } finally {
+                            os.close();
+                        }
                     }
-                    listener.getLogger().println(Messages.SSHLauncher_CopiedXXXBytes(getTimestamp(), slaveJar.length));
                 } catch (Error error) {
                     throw error;  
                 } catch (Throwable e) {
@@ -1069,6 +1776,35 @@ public class SSHLauncher extends ComputerLauncher {
             }
         }
     }
+    /**
+     * Checks if the <tt>slave.jar</tt> already on the slave is the one we would copy.
+     *
+     * @param sftpClient       The SFTP client.
+     * @param fileName         The path of <tt>slave.jar</tt> on the slave.
+     * @param checksumFileName The path of the file that records the digest of what we copied last time.
+     */
+    private boolean isSlaveJarUpToDate(SFTPClient sftpClient, String fileName, String checksumFileName) {
+        try {
+            SlaveJar slaveJar = SlaveJar.get();
+            SFTPv3FileAttributes attrs = sftpClient._stat(fileName);
+            if (attrs == null || !attrs.isRegularFile() || attrs.size == null || attrs.size != slaveJar.length) {
+                return false;
+            }
+            if (!sftpClient.exists(checksumFileName)) {
+                return false;
+            }
+            InputStream is = sftpClient.read(checksumFileName);
+            try {
+                return slaveJar.digest.equals(IOUtils.toString(is, "US-ASCII").trim());
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to check the existing slave.jar at " + fileName, e);
+            return false;
+        }
+    }
+
     /**
      * Method copies the slave jar to the remote system using scp.
      *
@@ -1080,7 +1816,6 @@ public class SSHLauncher extends ComputerLauncher {
      */
     private void copySlaveJarUsingSCP(TaskListener listener, String workingDirectory) throws IOException, InterruptedException {
         listener.getLogger().println(Messages.SSHLauncher_StartingSCPClient(getTimestamp()));
-        SCPClient scp = new SCPClient(connection);
         try {
             // check if the working directory exists
             if (connection.exec("test -d " + workingDirectory ,listener.getLogger())!=0) {
@@ -1095,18 +1830,117 @@ public class SSHLauncher extends ComputerLauncher {
             // delete the slave jar as we do with SFTP
             connection.exec("rm " + workingDirectory + "/slave.jar", new NullStream());
 
-            // SCP it to the slave. hudson.Util.ByteArrayOutputStream2 doesn't work for this. It pads the byte array.
-            InputStream is = Jenkins.getActiveInstance().servletContext.getResourceAsStream("/WEB-INF/slave.jar");
             listener.getLogger().println(Messages.SSHLauncher_CopyingSlaveJar(getTimestamp()));
-            scp.put(IOUtils.toByteArray(is), "slave.jar", workingDirectory, "0644");
+            if (COMPRESS_SLAVE_JAR && copySlaveJarCompressed(listener, workingDirectory + "/slave.jar")) {
+                return;
+            }
+            scpSlaveJar(workingDirectory);
+            listener.getLogger().println(Messages.SSHLauncher_CopiedXXXBytes(getTimestamp(), SlaveJar.get().length));
+            PluginImpl.transferred(connection, SlaveJar.get().length);
         } catch (IOException e) {
             throw new IOException2(Messages.SSHLauncher_ErrorCopyingSlaveJarInto(workingDirectory), e);
         }
     }
 
+    /**
+     * Streams <tt>slave.jar</tt> to <tt>scp -t</tt> on the slave, like {@link SCPClient#put(byte[], String, String, String)}
+     * does, except straight from the buffer shared by all launches.
+     */
+    private void scpSlaveJar(String workingDirectory) throws IOException, InterruptedException {
+        SlaveJar slaveJar = SlaveJar.get();
+        Session session = connection.openSession();
+        try {
+            session.execCommand("scp -t " + RemoteProbe.quote(workingDirectory));
+            OutputStream os = new BufferedOutputStream(session.getStdin(), 32 * 1024);
+            InputStream is = session.getStdout();
+            readScpAck(is);
+            os.write(("C0644 " + slaveJar.length + " slave.jar\n").getBytes("UTF-8"));
+            os.flush();
+            readScpAck(is);
+            slaveJar.writeTo(os);
+            os.write(0);
+            os.flush();
+            readScpAck(is);
+            os.close();
+            session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, TimeUnit.SECONDS.toMillis(30));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Reads the reply of <tt>scp -t</tt> to what we sent last.
+     */
+    private static void readScpAck(InputStream is) throws IOException {
+        int c = is.read();
+        if (c == 0) {
+            return;
+        }
+        if (c == -1) {
+            throw new IOException("Remote scp terminated unexpectedly.");
+        }
+        StringBuilder message = new StringBuilder();
+        while ((c = is.read()) != -1 && c != '\n') {
+            message.append((char) c);
+        }
+        throw new IOException("Remote scp terminated with error (" + message + ").");
+    }
+
+    /**
+     * Copies <tt>slave.jar</tt> by piping it gzip-compressed into <tt>gzip -dc</tt> on the slave,
+     * which roughly halves what goes over the wire.
+     *
+     * <p>
+     * The jar is decompressed into a temporary file and moved into place once complete,
+     * so that a failed copy never leaves a truncated jar behind.
+     *
+     * @param fileName The path of <tt>slave.jar</tt> on the slave.
+     * @return false if that didn't work, such as when there's no <tt>gzip</tt> on the slave,
+     *      in which case the caller should copy the jar by other means.
+     */
+    private boolean copySlaveJarCompressed(TaskListener listener, String fileName) throws InterruptedException {
+        String tmp = RemoteProbe.quote(fileName + ".tmp");
+        Session session = null;
+        try {
+            session = connection.openSession();
+            session.execCommand("gzip -dc > " + tmp + " && mv -f " + tmp + " " + RemoteProbe.quote(fileName)
+                    + " || { rm -f " + tmp + "; exit 1; }");
+            CountingOutputStream compressed = new CountingOutputStream(session.getStdin());
+            GZIPOutputStream os = new GZIPOutputStream(compressed, 32 * 1024);
+            long copied = SlaveJar.get().writeTo(os);
+            os.close();
+
+            session.waitForCondition(ChannelCondition.EXIT_STATUS, 0);
+            Integer exitStatus = session.getExitStatus();
+            if (exitStatus == null || exitStatus != 0) {
+                IOUtils.copy(session.getStderr(), listener.getLogger());
+                LOGGER.log(FINE, "gzip on the slave exited with {0}", exitStatus);
+                listener.getLogger().println(Messages.SSHLauncher_CompressedCopyFailed(getTimestamp()));
+                return false;
+            }
+            listener.getLogger().println(Messages.SSHLauncher_CopiedCompressedBytes(getTimestamp(), copied,
+                    compressed.getByteCount()));
+            PluginImpl.transferred(connection, compressed.getByteCount());
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(FINE, "Failed to copy a compressed slave.jar to " + fileName, e);
+            listener.getLogger().println(Messages.SSHLauncher_CompressedCopyFailed(getTimestamp()));
+            return false;
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
     protected void reportEnvironment(TaskListener listener) throws IOException, InterruptedException {
         listener.getLogger().println(Messages._SSHLauncher_RemoteUserEnvironment(getTimestamp()));
-        connection.exec("set",listener.getLogger());
+        RemoteProbe probe = this.probe;
+        if (probe != null) {
+            listener.getLogger().print(probe.environment);
+        } else {
+            connection.exec("set",listener.getLogger());
+        }
     }
 
     @NonNull
@@ -1114,11 +1948,18 @@ public class SSHLauncher extends ComputerLauncher {
         listener.getLogger().println(Messages.SSHLauncher_CheckingDefaultJava(getTimestamp(),javaCommand));
         StringWriter output = new StringWriter();   // record output from Java
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        connection.exec(javaCommand + " "+getJvmOptions() + " -version",out);
-        //TODO: Seems we need to retrieve the encoding from the connection destination
-        BufferedReader r = new BufferedReader(new InputStreamReader(
-                new ByteArrayInputStream(out.toByteArray()), Charset.defaultCharset()));
+        RemoteProbe probe = this.probe;
+        String probed = probe != null ? probe.getJavaVersionOutput(javaCommand) : null;
+        BufferedReader r;
+        if (probed != null) {
+            r = new BufferedReader(new StringReader(probed));
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            connection.exec(javaCommand + " "+getJvmOptions() + " -version",out);
+            //TODO: Seems we need to retrieve the encoding from the connection destination
+            r = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(out.toByteArray()), Charset.defaultCharset()));
+        }
         final String result = checkJavaVersion(listener.getLogger(), javaCommand, r, output);
 
         if(null == result) {
@@ -1181,43 +2022,128 @@ public class SSHLauncher extends ComputerLauncher {
         listener.getLogger().println(Messages.SSHLauncher_OpeningSSHConnection(getTimestamp(), host + ":" + port));
         connection.setTCPNoDelay(true);
 
-        int maxNumRetries = this.maxNumRetries == null || this.maxNumRetries < 0 ? 0 : this.maxNumRetries;
+        RetryPolicy retryPolicy = getRetryPolicy();
+        long start = System.currentTimeMillis();
 
-        for (int i = 0; i <= maxNumRetries; i++) {
+        for (int failed = 1; ; failed++) {
+            // only hold a handshake slot while connecting, never while waiting to retry,
+            // or a few unreachable hosts would keep every reachable one waiting
+            acquireSlot(LaunchScheduler.HANDSHAKES);
+            IOException ioexception;
             try {
                 connection.connect();
                 break;
-            } catch (IOException ioexception) {
-                listener.getLogger().println(ioexception.getCause().getMessage());
-                String ioExceptionMessageCause = "";
-                if (ioexception.getCause() != null) {
-                    ioExceptionMessageCause = ioexception.getCause().getMessage();
-                }
-                if (!ioExceptionMessageCause.equals("Connection refused")) {
-                    break;
-                }
-                if (maxNumRetries - i > 0) {
-                    listener.getLogger().println("SSH Connection failed with IOException: \"" + ioExceptionMessageCause
-                                                         + "\", retrying in " + retryWaitTime + " seconds.  There are "
-                                                         + (maxNumRetries - i) + " more retries left.");
-                } else {
-                    listener.getLogger().println("SSH Connection failed with IOException: \"" + ioExceptionMessageCause + "\".");
-                    throw ioexception;
-                }
+            } catch (IOException e) {
+                ioexception = e;
+            } catch (RuntimeException e) {
+                LaunchScheduler.HANDSHAKES.release();
+                throw e;
+            } catch (Error e) {
+                LaunchScheduler.HANDSHAKES.release();
+                throw e;
             }
-            Thread.sleep(TimeUnit.SECONDS.toMillis(retryWaitTime));
+            LaunchScheduler.HANDSHAKES.release();
+
+            Throwable cause = ioexception.getCause() != null ? ioexception.getCause() : ioexception;
+            String ioExceptionMessageCause = String.valueOf(cause.getMessage());
+            listener.getLogger().println(ioExceptionMessageCause);
+            long delay = RetryPolicy.isRetryable(ioexception)
+                    ? retryPolicy.getDelayMillis(failed, System.currentTimeMillis() - start)
+                    : -1;
+            if (delay < 0) {
+                listener.getLogger().println("SSH Connection failed with IOException: \"" + ioExceptionMessageCause + "\".");
+                throw ioexception;
+            }
+            listener.getLogger().println("SSH Connection failed with IOException: \"" + ioExceptionMessageCause
+                                                 + "\", retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay)
+                                                 + " seconds.  There are " + (retryPolicy.getMaxRetries() - failed + 1)
+                                                 + " more retries left.");
+            Thread.sleep(delay);
         }
 
-        StandardUsernameCredentials credentials = getCredentials();
-        if (credentials == null) {
-            throw new AbortException("Cannot find SSH User credentials with id: " + credentialsId);
+        // the slot we connected with also covers the authentication
+        try {
+            phaseCompleted(LaunchPhase.CONNECT);
+
+            StandardUsernameCredentials credentials = getCredentials();
+            if (credentials == null) {
+                throw new AbortException("Cannot find SSH User credentials with id: " + credentialsId);
+            }
+            if (SSHAuthenticator.newInstance(connection, credentials).authenticate(listener)
+                    && connection.isAuthenticationComplete()) {
+                listener.getLogger().println(Messages.SSHLauncher_AuthenticationSuccessful(getTimestamp()));
+                phaseCompleted(LaunchPhase.AUTHENTICATE);
+            } else {
+                listener.getLogger().println(Messages.SSHLauncher_AuthenticationFailed(getTimestamp()));
+                throw new AbortException(Messages.SSHLauncher_AuthenticationFailedException());
+            }
+        } finally {
+            LaunchScheduler.HANDSHAKES.release();
         }
-        if (SSHAuthenticator.newInstance(connection, credentials).authenticate(listener)
-                && connection.isAuthenticationComplete()) {
-            listener.getLogger().println(Messages.SSHLauncher_AuthenticationSuccessful(getTimestamp()));
-        } else {
-            listener.getLogger().println(Messages.SSHLauncher_AuthenticationFailed(getTimestamp()));
-            throw new AbortException(Messages.SSHLauncher_AuthenticationFailedException());
+    }
+
+    /**
+     * Waits for a slot of the given scheduler for the node being launched, leaving the wait out of the phase timings.
+     * Pair with {@link LaunchScheduler#release()}.
+     */
+    private void acquireSlot(LaunchScheduler scheduler) throws InterruptedException {
+        PhaseTimer timer = phaseTimer;
+        if (timer == null) {
+            scheduler.acquire(null);
+            return;
+        }
+        long begin = timer.queuing();
+        try {
+            scheduler.acquire(timer.computer.getNode());
+        } finally {
+            timer.waited(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Waits for a launch to complete for at most the given time, not counting the time it spends
+     * queued in the {@link LaunchScheduler}. Otherwise, when lots of slaves reconnect at once, the ones at
+     * the back of the queue would time out before they even start.
+     */
+    private static Boolean awaitLaunch(Future<Boolean> result, PhaseTimer timer, long timeoutMillis)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long begin = System.nanoTime();
+        while (true) {
+            long remaining = timeoutMillis
+                    - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin - timer.getQueuedNanos());
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            try {
+                return result.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // it may have been queued in the meantime, so see how much time it has left
+            }
+        }
+    }
+
+    /**
+     * Returns the policy deciding how {@link #openConnection(TaskListener)} retries a failed connection.
+     * Waits start at {@link #getRetryWaitTime()} and the total never exceeds the launch timeout.
+     */
+    RetryPolicy getRetryPolicy() {
+        int maxNumRetries = this.maxNumRetries == null || this.maxNumRetries < 0 ? 0 : this.maxNumRetries;
+        long base = TimeUnit.SECONDS.toMillis(retryWaitTime == null || retryWaitTime < 0 ? 0 : retryWaitTime);
+        long budget = TimeUnit.SECONDS.toMillis(RetryPolicy.BUDGET_SECONDS);
+        if (getLaunchTimeoutMillis() > 0) {
+            budget = budget > 0 ? Math.min(budget, getLaunchTimeoutMillis()) : getLaunchTimeoutMillis();
+        }
+        return new RetryPolicy(maxNumRetries, base, TimeUnit.SECONDS.toMillis(RetryPolicy.MAX_WAIT_SECONDS),
+                budget, new Random());
+    }
+
+    /**
+     * Reports the completion of a phase of the launch in progress, if any.
+     */
+    private void phaseCompleted(LaunchPhase phase) {
+        PhaseTimer timer = phaseTimer;
+        if (timer != null) {
+            timer.completed(phase);
         }
     }
 
@@ -1226,77 +2152,27 @@ public class SSHLauncher extends ComputerLauncher {
      */
     @Override
     public synchronized void afterDisconnect(SlaveComputer slaveComputer, final TaskListener listener) {
+        stopMonitor();
         if (connection != null) {
             boolean connectionLost = reportTransportLoss(connection, listener);
-            if (session!=null) {
-                // give the process 3 seconds to write out its dying message before we cut the loss
-                // and give up on this process. if the slave process had JVM crash, OOME, or any other
-                // critical problem, this will allow us to capture that.
-                // exit code is also an useful info to figure out why the process has died.
-                try {
-                    listener.getLogger().println(getSessionOutcomeMessage(session,connectionLost));
-                    session.getStdout().close();
-                    session.close();
-                } catch (Throwable t) {
-                    t.printStackTrace(listener.error(Messages.SSHLauncher_ErrorWhileClosingConnection()));
-                }
-                session = null;
-            }
 
             Slave n = slaveComputer.getNode();
-            if (n != null && !connectionLost) {
-                String workingDirectory = getWorkingDirectory(n);
-                final String fileName = workingDirectory + "/slave.jar";
-                Future<?> tidyUp = Computer.threadPoolForRemoting.submit(new Runnable() {
-                    public void run() {
-                        // this would fail if the connection is already lost, so we want to check that.
-                        // TODO: Connection class should expose whether it is still connected or not.
-
-                        SFTPv3Client sftpClient = null;
-                        try {
-                            sftpClient = new SFTPv3Client(connection);
-                            sftpClient.rm(fileName);
-                        } catch (Exception e) {
-                            if (sftpClient == null) {// system without SFTP
-                                try {
-                                    connection.exec("rm " + fileName, listener.getLogger());
-                                } catch (Error error) {
-                                    throw error;
-                                } catch (Throwable x) {
-                                    x.printStackTrace(listener.error(Messages.SSHLauncher_ErrorDeletingFile(getTimestamp())));
-                                    // We ignore other Exception types
-                                }
-                            } else {
-                                e.printStackTrace(listener.error(Messages.SSHLauncher_ErrorDeletingFile(getTimestamp())));
-                            }
-                        } finally {
-                            if (sftpClient != null) {
-                                sftpClient.close();
-                            }
-                        }
-                    }
-                });
-                try {
-                    // the delete is best effort only and if it takes longer than 60 seconds - or the launch 
-                    // timeout (if specified) - then we should just give up and leave the file there.
-                    tidyUp.get(launchTimeoutSeconds == null ? 60 : launchTimeoutSeconds, TimeUnit.SECONDS);
-                } catch (InterruptedException e) {
-                    e.printStackTrace(listener.error(Messages.SSHLauncher_ErrorDeletingFile(getTimestamp())));
-                    // we should either re-apply our interrupt flag or propagate... we don't want to propagate, so...
-                    Thread.currentThread().interrupt();
-                } catch (ExecutionException e) {
-                    e.printStackTrace(listener.error(Messages.SSHLauncher_ErrorDeletingFile(getTimestamp())));
-                } catch (TimeoutException e) {
-                    e.printStackTrace(listener.error(Messages.SSHLauncher_ErrorDeletingFile(getTimestamp())));
-                } finally {
-                    if (!tidyUp.isDone()) {
-                        tidyUp.cancel(true);
-                    }
-                }
+            String fileToDelete = null;
+            if (n != null && !connectionLost && !CACHE_SLAVE_JAR) {
+                fileToDelete = getWorkingDirectory(n) + "/slave.jar";
             }
 
-            PluginImpl.unregister(connection);
-            cleanupConnection(listener);
+            Connection c = connection;
+            boolean close = false;
+            if (connectionLost || !keepForRelaunch(slaveComputer, listener)) {
+                // other launchers may still have their slaves running over a shared connection
+                close = SharedConnections.release(c);
+                connection = null;
+            }
+            // the rest can take a while, and shouldn't hold up a relaunch
+            Teardown.submit(new Teardown.Task(this, slaveComputer.getName(), listener,
+                    c, session, connectionLost, fileToDelete, close));
+            session = null;
         }
     }
 
@@ -1304,14 +2180,9 @@ public class SSHLauncher extends ComputerLauncher {
      * If the SSH connection as a whole is lost, report that information.
      */
     private boolean reportTransportLoss(Connection c, TaskListener listener) {
-        // TODO: switch to Connection.getReasonClosedCause() post build217-jenkins-8
-        // in the mean time, rely on reflection to get to the object
-
         TransportManager tm = null;
         try {
-            Field f = Connection.class.getDeclaredField("tm");
-            f.setAccessible(true);
-            tm = (TransportManager) f.get(c);
+            tm = getTransportManager(c);
         } catch (NoSuchFieldException e) {
             e.printStackTrace(listener.error("Failed to get to TransportManager"));
         } catch (IllegalAccessException e) {
@@ -1331,11 +2202,44 @@ public class SSHLauncher extends ComputerLauncher {
         return cause!=null;
     }
 
+    /**
+     * Returns why the given connection was closed, or null if it's still open.
+     * A connection that we can't tell about is considered closed.
+     */
+    static Throwable getTransportLossCause(Connection c) {
+        try {
+            TransportManager tm = getTransportManager(c);
+            if (tm == null) {
+                return new IOException("Not connected");
+            }
+            return tm.getReasonClosedCause();
+        } catch (NoSuchFieldException e) {
+            return e;
+        } catch (IllegalAccessException e) {
+            return e;
+        }
+    }
+
+    private static TransportManager getTransportManager(Connection c) throws NoSuchFieldException, IllegalAccessException {
+        // TODO: switch to Connection.getReasonClosedCause() post build217-jenkins-8
+        // in the mean time, rely on reflection to get to the object
+        Field f = Connection.class.getDeclaredField("tm");
+        f.setAccessible(true);
+        return (TransportManager) f.get(c);
+    }
+
     /**
      * Find the exit code or exit status, which are differentiated in SSH protocol.
      */
     private String getSessionOutcomeMessage(Session session, boolean isConnectionLost) throws InterruptedException {
-        session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.EXIT_SIGNAL, 3000);
+        return getSessionOutcomeMessage(session, isConnectionLost, 3000);
+    }
+
+    /**
+     * Find the exit code or exit status, waiting up to the given number of milliseconds for them.
+     */
+    String getSessionOutcomeMessage(Session session, boolean isConnectionLost, long timeout) throws InterruptedException {
+        session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.EXIT_SIGNAL, timeout);
 
         Integer exitCode = session.getExitStatus();
         if (exitCode != null)
@@ -1406,6 +2310,15 @@ public class SSHLauncher extends ComputerLauncher {
         return connection;
     }
 
+    /**
+     * Round trip time to the slave in milliseconds, as measured by the last keep-alive ping,
+     * or -1 if not known.
+     */
+    public long getRoundTripMillis() {
+        ConnectionMonitor m = monitor;
+        return m == null ? -1 : m.getRoundTripMillis();
+    }
+
     public String getPrefixStartSlaveCmd() {
         return prefixStartSlaveCmd == null ? "" : prefixStartSlaveCmd;
     }
@@ -1559,6 +2472,12 @@ public class SSHLauncher extends ComputerLauncher {
 
             String workingDirectory = getWorkingDirectory(computer);
             if (workingDirectory != null) {
+                // the JDK we installed last, see attemptToInstallJDK
+                String current = connection != null ? getCurrentJDK(connection, workingDirectory) : null;
+                if (current != null) {
+                    javas.add(workingDirectory + "/jdk/" + current + "/bin/java");
+                }
+                // where older versions installed it
                 javas.add(workingDirectory + "/jdk/bin/java");
             }
                
@@ -1586,6 +2505,116 @@ public class SSHLauncher extends ComputerLauncher {
 
     private static final Logger LOGGER = Logger.getLogger(SSHLauncher.class.getName());
 
+    /**
+     * Maximum number of Java candidates checked at the same time when the probe didn't work.
+     * Kept well below the default <tt>MaxSessions</tt> of OpenSSH.
+     */
+    public static /*non-final for script console*/ int MAX_CONCURRENT_JAVA_CHECKS =
+            Integer.getInteger(SSHLauncher.class.getName() + ".maxConcurrentJavaChecks", 4);
+
+    /**
+     * Keeps <tt>slave.jar</tt> on the slave between launches, and only copies it again when its digest changes.
+     */
+    public static /*non-final for script console*/ boolean CACHE_SLAVE_JAR =
+            Boolean.parseBoolean(System.getProperty(SSHLauncher.class.getName() + ".cacheSlaveJar", "true"));
+
+    /**
+     * Seconds for which the SSH connection is kept open after the remoting channel dies while the connection is fine,
+     * so that launching the slave again only needs to start its process. 0 or less always closes the connection.
+     */
+    public static /*non-final for script console*/ int RELAUNCH_TIMEOUT =
+            Integer.getInteger(SSHLauncher.class.getName() + ".relaunchTimeout", 60);
+
+    /**
+     * Installs tar.gz JDK bundles by extracting them on the slave while they are being copied,
+     * rather than copying them to the disk of the slave first.
+     */
+    public static /*non-final for script console*/ boolean STREAM_JDK_INSTALL =
+            Boolean.parseBoolean(System.getProperty(SSHLauncher.class.getName() + ".streamJDKInstall", "true"));
+
+    /**
+     * Written into a versioned JDK directory once the install into it has completed.
+     */
+    static final String JDK_INSTALLED_MARKER = ".installed";
+
+    /**
+     * Lets slaves on the same host, port and credentials share one SSH connection, each with its own session,
+     * instead of every one of them doing its own handshake.
+     *
+     * @see SharedConnections
+     */
+    public static /*non-final for script console*/ boolean SHARE_CONNECTIONS =
+            Boolean.getBoolean(SSHLauncher.class.getName() + ".shareConnections");
+
+    /**
+     * Copies <tt>slave.jar</tt> gzip-compressed through <tt>gzip -dc</tt> on the slave, falling back to SFTP or SCP
+     * if that fails. Pays off on slow links, at the cost of some CPU on both ends.
+     */
+    public static /*non-final for script console*/ boolean COMPRESS_SLAVE_JAR =
+            Boolean.getBoolean(SSHLauncher.class.getName() + ".compressSlaveJar");
+
+    /**
+     * Measures the phases of one launch and reports them to {@link LaunchPhaseListener}s.
+     */
+    private static final class PhaseTimer {
+        private final SlaveComputer computer;
+        private final long begin = System.nanoTime();
+        private long start = begin;
+        // read by the thread waiting for the launch
+        private volatile long queuedNanos;
+        private volatile long queuedSince;
+
+        PhaseTimer(SlaveComputer computer) {
+            this.computer = computer;
+        }
+
+        /**
+         * Starts timing the next phase from now, such as after waiting in the {@link LaunchScheduler}.
+         */
+        void restart() {
+            start = System.nanoTime();
+        }
+
+        /**
+         * Marks the start of a wait in the {@link LaunchScheduler}.
+         *
+         * @return the current {@link System#nanoTime()}
+         */
+        long queuing() {
+            long now = System.nanoTime();
+            queuedSince = now;
+            return now;
+        }
+
+        /**
+         * Leaves time spent waiting in the {@link LaunchScheduler} out of the phase in progress, and of the launch timeout.
+         */
+        void waited(long nanos) {
+            start += nanos;
+            queuedNanos += nanos;
+            queuedSince = 0;
+        }
+
+        /**
+         * Total time the launch has spent waiting in the {@link LaunchScheduler}, including a wait in progress.
+         */
+        long getQueuedNanos() {
+            long since = queuedSince;
+            return queuedNanos + (since != 0 ? System.nanoTime() - since : 0);
+        }
+
+        void completed(LaunchPhase phase) {
+            long now = System.nanoTime();
+            LaunchPhaseListener.fireCompleted(computer, phase, TimeUnit.NANOSECONDS.toMillis(now - start));
+            start = now;
+        }
+
+        void completedTotal() {
+            LaunchPhaseListener.fireCompleted(computer, LaunchPhase.TOTAL,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        }
+    }
+
     private static class DelegateNoCloseOutputStream extends OutputStream {
         private OutputStream out;
 
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.trilead.ssh2.Connection;
+import hudson.Util;
+import hudson.util.Secret;
+
+import javax.annotation.CheckForNull;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Authenticated connections that several {@link SSHLauncher}s going to the same host, port and credentials
+ * can open their sessions on, so that only the first one pays for the handshake and they share one receive thread.
+ *
+ * <p>
+ * Connections are reference counted: each launcher that uses one {@link #acquire(String) acquires} it or
+ * {@link #register(String, Connection) registers} it, and {@link #release(Connection) releases} it when done,
+ * and only the last one closes it.
+ *
+ * @see SSHLauncher#SHARE_CONNECTIONS
+ */
+final class SharedConnections {
+    private static final Map<String, Connection> BY_KEY = new HashMap<String, Connection>();
+    private static final Map<Connection, Shared> SHARED = new IdentityHashMap<Connection, Shared>();
+
+    private SharedConnections() {
+    }
+
+    /**
+     * @param fingerprint {@link #fingerprint(StandardUsernameCredentials)} of the credentials, so that a connection
+     *                    authenticated before they were edited isn't reused after.
+     */
+    static String key(String host, int port, String credentialsId, String fingerprint) {
+        return host.toLowerCase(Locale.ENGLISH) + ':' + port + ':' + credentialsId + ':' + fingerprint;
+    }
+
+    /**
+     * Returns a digest of everything about the given credentials that authentication depends on.
+     */
+    static String fingerprint(@CheckForNull StandardUsernameCredentials c) {
+        if (c == null) {
+            return "";
+        }
+        StringBuilder b = new StringBuilder(String.valueOf(c.getUsername())).append('\0');
+        if (c instanceof StandardUsernamePasswordCredentials) {
+            b.append(Secret.toString(((StandardUsernamePasswordCredentials) c).getPassword())).append('\0');
+        }
+        if (c instanceof SSHUserPrivateKey) {
+            SSHUserPrivateKey k = (SSHUserPrivateKey) c;
+            for (String key : k.getPrivateKeys()) {
+                b.append(key).append('\0');
+            }
+            b.append(Secret.toString(k.getPassphrase()));
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(md.digest(b.toString().getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the connection shared under the given key, counting one more reference to it.
+     *
+     * @return null if there's none.
+     */
+    static synchronized Connection acquire(String key) {
+        Connection c = BY_KEY.get(key);
+        if (c != null) {
+            SHARED.get(c).references++;
+        }
+        return c;
+    }
+
+    /**
+     * Shares a connection that was just opened and authenticated under the given key, counting one reference to it.
+     *
+     * @return false if another connection got shared under that key in the mean time, in which case
+     *      the given one is not shared, and closing it is up to the caller.
+     */
+    static synchronized boolean register(String key, Connection c) {
+        if (BY_KEY.containsKey(key)) {
+            return false;
+        }
+        BY_KEY.put(key, c);
+        SHARED.put(c, new Shared(key));
+        return true;
+    }
+
+    /**
+     * Stops sharing the given connection, such as because it turned out to be dead. Existing references stay valid.
+     */
+    static synchronized void discard(Connection c) {
+        Shared s = SHARED.get(c);
+        if (s != null && BY_KEY.get(s.key) == c) {
+            BY_KEY.remove(s.key);
+        }
+    }
+
+    /**
+     * Gives up a reference to the given connection.
+     *
+     * @return true if the caller should close the connection, because it held the last reference or because
+     *      the connection wasn't shared to begin with.
+     */
+    static synchronized boolean release(Connection c) {
+        Shared s = SHARED.get(c);
+        if (s == null) {
+            return true;
+        }
+        if (--s.references > 0) {
+            LOGGER.log(Level.FINE, "{0} still has {1} users", new Object[]{s.key, s.references});
+            return false;
+        }
+        SHARED.remove(c);
+        if (BY_KEY.get(s.key) == c) {
+            BY_KEY.remove(s.key);
+        }
+        if (s.monitor != null) {
+            s.monitor.stop();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the one monitor of the given shared connection, starting it for the first launcher that asks,
+     * so that the peer gets pinged once however many slaves use the connection.
+     * It's stopped when the last reference is {@link #release(Connection) released}.
+     *
+     * @return null if the connection isn't shared, or if monitoring is disabled.
+     */
+    static synchronized ConnectionMonitor monitor(Connection c) {
+        Shared s = SHARED.get(c);
+        if (s == null) {
+            return null;
+        }
+        if (s.monitor == null) {
+            // host:port, without the credentials part of the key
+            String name = s.key.substring(0, s.key.lastIndexOf(':'));
+            s.monitor = ConnectionMonitor.start(c, name.substring(0, name.lastIndexOf(':')));
+        }
+        return s.monitor;
+    }
+
+    /**
+     * Number of launchers using the given connection, or 0 if it isn't shared.
+     */
+    static synchronized int getReferences(Connection c) {
+        Shared s = SHARED.get(c);
+        return s == null ? 0 : s.references;
+    }
+
+    private static final class Shared {
+        final String key;
+        int references = 1;
+        ConnectionMonitor monitor;
+
+        Shared(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(SharedConnections.class.getName());
+}
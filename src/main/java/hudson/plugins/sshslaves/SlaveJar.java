@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.Util;
+import hudson.model.Slave;
+import hudson.remoting.Launcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The <tt>slave.jar</tt> we copy to the slaves, along with its digest.
+ *
+ * <p>
+ * The jar is loaded once per master process into a read-only buffer shared by all launches, so that reconnecting
+ * lots of slaves at once doesn't allocate a fresh copy of it for each of them. The digest lets every launch cheaply
+ * tell whether the copy already sitting on the slave is the one we would upload anyway.
+ * Both are loaded again only if the remoting version of the master changes, such as when it's upgraded in place.
+ *
+ * @see SSHLauncher#copySlaveJar
+ */
+final class SlaveJar implements SFTPClient.Source {
+    /**
+     * Name of the file next to <tt>slave.jar</tt> on the slave that records the digest of what we uploaded.
+     */
+    static final String CHECKSUM_SUFFIX = ".sha256";
+
+    /**
+     * Keeps the jar outside of the Java heap.
+     */
+    static /*non-final for script console*/ boolean DIRECT =
+            Boolean.getBoolean(SlaveJar.class.getName() + ".direct");
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private static SlaveJar INSTANCE;
+
+    /**
+     * Remoting version the jar was loaded for.
+     */
+    private final String version;
+
+    /**
+     * The jar itself. Never handed out, only {@link ByteBuffer#duplicate() duplicates} of it.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * Hex-encoded SHA-256 of the jar.
+     */
+    final String digest;
+
+    /**
+     * Size of the jar in bytes.
+     */
+    final long length;
+
+    private SlaveJar(String version, ByteBuffer data, String digest) {
+        this.version = version;
+        this.data = data.asReadOnlyBuffer();
+        this.digest = digest;
+        this.length = data.remaining();
+    }
+
+    /**
+     * Returns the <tt>slave.jar</tt> served by this master, loading it on the first call.
+     */
+    static synchronized SlaveJar get() throws IOException {
+        if (INSTANCE == null || !INSTANCE.version.equals(String.valueOf(Launcher.VERSION))) {
+            INSTANCE = load();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Writes the jar to the given stream.
+     *
+     * @return the number of bytes written.
+     */
+    long writeTo(OutputStream os) throws IOException {
+        ByteBuffer b = data.duplicate();
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, b.remaining())];
+        while (b.hasRemaining()) {
+            int len = Math.min(chunk.length, b.remaining());
+            b.get(chunk, 0, len);
+            os.write(chunk, 0, len);
+        }
+        return length;
+    }
+
+    public long size() {
+        return length;
+    }
+
+    public InputStream open() {
+        final ByteBuffer b = data.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return b.hasRemaining() ? b.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) {
+                if (!b.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, b.remaining());
+                b.get(buf, off, len);
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                n = Math.max(0, Math.min(n, b.remaining()));
+                b.position(b.position() + (int) n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+
+    private static SlaveJar load() throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        String version = String.valueOf(Launcher.VERSION);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+        InputStream in = new Slave.JnlpJar("slave.jar").getURL().openStream();
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                md.update(buf, 0, len);
+                bytes.write(buf, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        ByteBuffer data;
+        if (DIRECT) {
+            data = ByteBuffer.allocateDirect(bytes.size());
+            data.put(bytes.toByteArray());
+            data.flip();
+        } else {
+            data = ByteBuffer.wrap(bytes.toByteArray());
+        }
+        return new SlaveJar(version, data, Util.toHexString(md.digest()));
+    }
+}
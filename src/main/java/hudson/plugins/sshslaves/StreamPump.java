@@ -0,0 +1,328 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.ChannelCondition;
+import com.trilead.ssh2.Session;
+import hudson.model.Computer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the output of remote processes started by {@link RemoteLauncher} for all of them on a few shared threads,
+ * instead of three threads per process.
+ *
+ * <p>
+ * Each process is a task that copies whatever output arrived on its session and puts itself back at the end of
+ * the queue, so that a handful of threads can serve any number of processes.
+ * The SSH library only lets a thread wait on one session at a time, so this is polling rather than being woken up
+ * by whichever session has data. A process that had nothing to say is parked on the {@link Timer}, off the threads,
+ * for twice as long as the previous time, up to {@link #MAX_IDLE_MILLIS}, so that idle processes cost next to
+ * nothing however many there are, while a busy one is served again straight away.
+ * When the master runs on a JVM with virtual threads, those are used instead of a fixed pool.
+ *
+ * <p>
+ * Input is copied on {@link Computer#threadPoolForRemoting}, as we can't tell whether a local stream
+ * has more to give without blocking, and a blocked reader must not take a thread away from the output.
+ */
+final class StreamPump {
+    /**
+     * Number of threads shared by all processes, when virtual threads are not available.
+     */
+    static /*non-final for script console*/ int MAX_THREADS =
+            Integer.getInteger(StreamPump.class.getName() + ".maxThreads", 4);
+
+    /**
+     * Longest time in milliseconds a process that has been quiet for a while waits before it looks for output again.
+     */
+    static /*non-final for script console*/ long MAX_IDLE_MILLIS =
+            Long.getLong(StreamPump.class.getName() + ".maxIdleMillis", 200);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Outcomes of {@link Pump#step()}.
+     */
+    private static final int DONE = 0, BUSY = 1, IDLE = 2;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private StreamPump() {
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // Java 21+
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            int n = Math.max(1, MAX_THREADS);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "SSH stream pump"));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * Picks up any change to {@link #MAX_THREADS}.
+     */
+    private static void resize() {
+        if (!(EXECUTOR instanceof ThreadPoolExecutor)) {
+            return; // a virtual thread each
+        }
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) EXECUTOR;
+        int n = Math.max(1, MAX_THREADS);
+        synchronized (pool) {
+            if (n > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(n);
+                pool.setCorePoolSize(n);
+            } else if (n < pool.getMaximumPoolSize()) {
+                pool.setCorePoolSize(n);
+                pool.setMaximumPoolSize(n);
+            }
+        }
+    }
+
+    /**
+     * Starts copying the output of the process in the given session to the given streams,
+     * and the given input to the process.
+     */
+    static Pump start(String name, Session session, OutputStream stdout, OutputStream stderr, InputStream stdin) {
+        Pump p = new Pump(name, session, stdout, stderr);
+        if (stdin != null) {
+            p.stdinCopier = Computer.threadPoolForRemoting.submit(new StdinCopier(name, stdin, session.getStdin()));
+        }
+        resize();
+        p.schedule();
+        return p;
+    }
+
+    /**
+     * Copying for one process.
+     */
+    static final class Pump implements Runnable {
+        private final String name;
+        private final Session session;
+        private final InputStream stdout, stderr;
+        private final OutputStream out, err;
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile Future<?> stdinCopier;
+        /**
+         * How long the process was parked the last time, 0 if it had something to say.
+         */
+        private long idleMillis;
+
+        Pump(String name, Session session, OutputStream out, OutputStream err) {
+            this.name = name;
+            this.session = session;
+            this.stdout = session.getStdout();
+            this.stderr = session.getStderr();
+            this.out = out;
+            this.err = err;
+        }
+
+        private void schedule() {
+            try {
+                EXECUTOR.execute(this);
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to copy the output of " + name, e);
+                finish();
+            }
+        }
+
+        /**
+         * Parks the process for a while, off the threads.
+         */
+        private void park() {
+            idleMillis = Math.min(Math.max(1, MAX_IDLE_MILLIS), Math.max(1, 2 * idleMillis));
+            try {
+                Timer.get().schedule(new Runnable() {
+                    public void run() {
+                        schedule();
+                    }
+                }, idleMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to copy the output of " + name, e);
+                finish();
+            }
+        }
+
+        private void finish() {
+            done.countDown();
+        }
+
+        public void run() {
+            int state = DONE;
+            try {
+                state = cancelled ? DONE : step();
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                LOGGER.log(Level.FINE, "Failed to copy the output of " + name, e);
+            }
+            switch (state) {
+            case BUSY:
+                idleMillis = 0;
+                // let the other processes have their turn
+                schedule();
+                break;
+            case IDLE:
+                park();
+                break;
+            default:
+                finish();
+            }
+        }
+
+        /**
+         * Copies what's there.
+         *
+         * @return {@link #DONE} if the process won't write any more, {@link #BUSY} if it wrote something,
+         *         {@link #IDLE} otherwise.
+         */
+        private int step() throws Exception {
+            int progress = copyAvailable(stdout, out) + copyAvailable(stderr, err);
+            // returns straight away when there's data or the process is gone, so only an idle process waits the 1ms
+            int conditions = session.waitForCondition(
+                    ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA
+                            | ChannelCondition.EOF | ChannelCondition.CLOSED, 1);
+            if ((conditions & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0
+                    && stdout.available() == 0 && stderr.available() == 0) {
+                // the remote end won't send any more, and we've got everything it sent
+                out.flush();
+                err.flush();
+                return DONE;
+            }
+            if (progress > 0 || (conditions & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) != 0) {
+                return BUSY;
+            }
+            if (idleMillis == 0) {
+                // it may have been waiting for its turn a while, so let what it wrote so far out before it's parked
+                out.flush();
+                err.flush();
+            }
+            return IDLE;
+        }
+
+        /**
+         * Copies what can be read without blocking, up to a buffer full, so that one chatty process
+         * can't keep the thread to itself.
+         */
+        private int copyAvailable(InputStream in, OutputStream os) throws IOException {
+            int n = Math.min(in.available(), buf.length);
+            if (n <= 0) {
+                return 0;
+            }
+            int len = in.read(buf, 0, n);
+            if (len > 0) {
+                os.write(buf, 0, len);
+            }
+            return Math.max(len, 0);
+        }
+
+        /**
+         * Waits until all the output of the process has been copied, and all its input.
+         */
+        void join() throws InterruptedException {
+            done.await();
+            Future<?> f = stdinCopier;
+            if (f != null) {
+                try {
+                    f.get();
+                } catch (CancellationException e) {
+                    // cancelled
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.FINE, "Failed to copy the input of " + name, e);
+                }
+            }
+        }
+
+        /**
+         * Stops copying. Whatever the process writes from now on is lost.
+         */
+        void cancel() {
+            cancelled = true;
+            Future<?> f = stdinCopier;
+            if (f != null) {
+                f.cancel(true);
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Copies the input of a process, and closes it at the end.
+     */
+    private static final class StdinCopier implements Runnable {
+        private final String name;
+        private final InputStream in;
+        private final OutputStream out;
+
+        StdinCopier(String name, InputStream in, OutputStream out) {
+            this.name = name;
+            this.in = in;
+            this.out = out;
+        }
+
+        public void run() {
+            try {
+                try {
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    int len;
+                    while (!Thread.currentThread().isInterrupted() && (len = in.read(buf)) >= 0) {
+                        out.write(buf, 0, len);
+                        out.flush();
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to copy the input of " + name, e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(StreamPump.class.getName());
+}
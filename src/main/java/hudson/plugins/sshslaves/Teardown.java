@@ -0,0 +1,333 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.ChannelCondition;
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.SFTPv3Client;
+import com.trilead.ssh2.Session;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Does what's left to do after a slave disconnects, off the thread that disconnected it.
+ *
+ * <p>
+ * Waiting for the exit status of the slave process, deleting <tt>slave.jar</tt> and closing the connection
+ * can take seconds, and used to hold the lock of the {@link SSHLauncher}, so that a relaunch of the same node had to
+ * wait for it. Instead {@link SSHLauncher#afterDisconnect} queues a {@link Task} here and returns.
+ * Tasks for the same host are handled together by one thread: the exit statuses are all waited for at the same time,
+ * and the files to delete on the same connection share one SFTP session.
+ *
+ * <p>
+ * How the slave process ended, which is often the only clue as to why the slave died, goes to the log of the node
+ * as it used to. As that log may have moved on to the next launch by then, it's also written to the system log,
+ * along with everything else we find out.
+ */
+final class Teardown {
+    /**
+     * Milliseconds to wait for the slave processes to report their exit status.
+     */
+    static /*non-final for script console*/ long EXIT_STATUS_TIMEOUT =
+            Long.getLong(Teardown.class.getName() + ".exitStatusTimeout", 3000);
+
+    /**
+     * Seconds after which we stop waiting for the deletes, abandoning their sessions and closing
+     * the connections that were to be closed anyway.
+     */
+    static /*non-final for script console*/ int DELETE_TIMEOUT =
+            Integer.getInteger(Teardown.class.getName() + ".deleteTimeout", 60);
+
+    /**
+     * Batches waiting for or being handled by a thread, by host.
+     */
+    private static final Map<String, Batch> BATCHES = new HashMap<String, Batch>();
+
+    /**
+     * Tasks whose delete hasn't happened yet.
+     */
+    private static final Set<Task> PENDING = new HashSet<Task>();
+
+    private Teardown() {
+    }
+
+    /**
+     * What to do after a slave disconnects.
+     */
+    static final class Task {
+        final SSHLauncher launcher;
+        final String owner;
+        final TaskListener listener;
+        final Connection connection;
+        final Session session;
+        final boolean connectionLost;
+        final String fileToDelete;
+        final boolean close;
+        private volatile boolean cancelled;
+
+        /**
+         * @param owner          Name of the node, to {@link #cancelDeletes(String) cancel} the delete if it's relaunched.
+         * @param listener       Log of the node, to report how the slave process ended.
+         * @param session        The session the slave process ran in, if any.
+         * @param fileToDelete   The file to delete on the slave, if any.
+         * @param close          Whether to close the connection when done.
+         */
+        Task(SSHLauncher launcher, String owner, TaskListener listener, Connection connection, Session session,
+             boolean connectionLost, String fileToDelete, boolean close) {
+            this.launcher = launcher;
+            this.owner = owner;
+            this.listener = listener;
+            this.connection = connection;
+            this.session = session;
+            this.connectionLost = connectionLost;
+            this.fileToDelete = fileToDelete;
+            this.close = close;
+        }
+    }
+
+    /**
+     * Queues a task, to be done soon.
+     */
+    static void submit(Task task) {
+        String host = task.connection.getHostname();
+        synchronized (BATCHES) {
+            if (task.fileToDelete != null) {
+                PENDING.add(task);
+            }
+            Batch b = BATCHES.get(host);
+            if (b == null) {
+                b = new Batch(host);
+                BATCHES.put(host, b);
+                Computer.threadPoolForRemoting.submit(b);
+            }
+            b.tasks.add(task);
+        }
+    }
+
+    /**
+     * Makes sure that no delete queued for the given node is started from now on, such as because the node is being
+     * launched again and the file would be copied anew. Doesn't wait for a delete that's already under way,
+     * which the slave carries out before anything the new launch asks for over the same SFTP session or later.
+     */
+    static void cancelDeletes(String owner) {
+        synchronized (BATCHES) {
+            for (Task t : PENDING) {
+                if (t.owner.equals(owner)) {
+                    t.cancelled = true;
+                }
+            }
+        }
+    }
+
+    private static final class Batch implements Runnable {
+        private final String host;
+        private final List<Task> tasks = new ArrayList<Task>();
+
+        Batch(String host) {
+            this.host = host;
+        }
+
+        public void run() {
+            while (true) {
+                List<Task> batch;
+                synchronized (BATCHES) {
+                    if (tasks.isEmpty()) {
+                        BATCHES.remove(host);
+                        return;
+                    }
+                    batch = new ArrayList<Task>(tasks);
+                    tasks.clear();
+                }
+                try {
+                    handle(batch);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to clean up after slaves on " + host, e);
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Interrupted while cleaning up after slaves on " + host, e);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static void handle(List<Task> batch) throws InterruptedException {
+        // give the processes a few seconds to write out their dying message before we cut the loss
+        // and give up on them. if the slave process had JVM crash, OOME, or any other
+        // critical problem, this will allow us to capture that.
+        // exit code is also an useful info to figure out why the process has died.
+        long deadline = System.currentTimeMillis() + EXIT_STATUS_TIMEOUT;
+        for (Task t : batch) {
+            if (t.session == null) {
+                continue;
+            }
+            try {
+                long timeout = Math.max(1, deadline - System.currentTimeMillis());
+                String outcome = t.launcher.getSessionOutcomeMessage(t.session, t.connectionLost, timeout);
+                t.listener.getLogger().println(outcome);
+                LOGGER.log(Level.INFO, "{0}: {1}", new Object[] {t.owner, outcome});
+                t.session.getStdout().close();
+                t.session.close();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable x) {
+                LOGGER.log(Level.WARNING, t.owner + ": " + Messages.SSHLauncher_ErrorWhileClosingConnection(), x);
+            }
+        }
+
+        Map<Connection, List<Task>> deletes = new IdentityHashMap<Connection, List<Task>>();
+        for (Task t : batch) {
+            if (t.fileToDelete != null) {
+                List<Task> l = deletes.get(t.connection);
+                if (l == null) {
+                    deletes.put(t.connection, l = new ArrayList<Task>());
+                }
+                l.add(t);
+            }
+        }
+        // a connection that stopped responding would block us forever. those that are about to be closed anyway
+        // are closed, and on the others, such as shared ones, we abandon the SFTP sessions
+        final List<Connection> closing = new ArrayList<Connection>();
+        for (Task t : batch) {
+            if (t.close) {
+                closing.add(t.connection);
+            }
+        }
+        final List<SFTPv3Client> sessions = Collections.synchronizedList(new ArrayList<SFTPv3Client>());
+        long deleteDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DELETE_TIMEOUT);
+        ScheduledFuture<?> watchdog = deletes.isEmpty() ? null : Timer.get().schedule(new Runnable() {
+            public void run() {
+                for (Connection c : closing) {
+                    c.close();
+                }
+                synchronized (sessions) {
+                    for (SFTPv3Client sftp : sessions) {
+                        sftp.close();
+                    }
+                }
+            }
+        }, DELETE_TIMEOUT, TimeUnit.SECONDS);
+        try {
+            for (Map.Entry<Connection, List<Task>> e : deletes.entrySet()) {
+                delete(e.getKey(), e.getValue(), sessions, deleteDeadline);
+            }
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            synchronized (BATCHES) {
+                PENDING.removeAll(batch);
+            }
+        }
+
+        for (Task t : batch) {
+            if (t.close) {
+                PluginImpl.unregister(t.connection);
+                t.connection.close();
+                LOGGER.log(Level.FINE, "{0}: closed the SSH connection to {1}",
+                        new Object[] {t.owner, t.connection.getHostname()});
+            }
+        }
+    }
+
+    /**
+     * Deletes the files of the given tasks over one SFTP session on the given connection,
+     * which is added to {@code sessions} for the watchdog to close.
+     */
+    private static void delete(Connection connection, List<Task> tasks, List<SFTPv3Client> sessions, long deadline)
+            throws InterruptedException {
+        SFTPv3Client sftpClient = null;
+        try {
+            sftpClient = new SFTPv3Client(connection);
+            sessions.add(sftpClient);
+        } catch (Exception e) {
+            // system without SFTP
+            LOGGER.log(Level.FINE, "Failed to start SFTP to " + connection.getHostname(), e);
+        }
+        try {
+            for (Task t : tasks) {
+                if (t.cancelled) {
+                    continue;
+                }
+                try {
+                    if (sftpClient != null) {
+                        sftpClient.rm(t.fileToDelete);
+                    } else {
+                        exec(connection, "rm " + t.fileToDelete, deadline);
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Error error) {
+                    throw error;
+                } catch (Throwable x) {
+                    LOGGER.log(Level.WARNING, t.owner + ": failed to delete " + t.fileToDelete, x);
+                    // We ignore other Exception types
+                }
+            }
+        } finally {
+            if (sftpClient != null) {
+                sftpClient.close();
+            }
+        }
+    }
+
+    /**
+     * Runs a command in a session of its own, giving up on it at the given time.
+     */
+    private static void exec(Connection connection, String command, long deadline)
+            throws IOException, InterruptedException {
+        Session s = connection.openSession();
+        try {
+            s.execCommand(command);
+            s.getStdin().close();
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout <= 0 || (s.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, timeout)
+                    & ChannelCondition.TIMEOUT) != 0) {
+                throw new IOException("Timed out running " + command);
+            }
+            Integer status = s.getExitStatus();
+            if (status != null && status != 0) {
+                throw new IOException(command + " exited with " + status);
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Teardown.class.getName());
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelWindowTest {
+
+    @Test
+    public void unknownLink() {
+        assertEquals(ChannelWindow.DEFAULT, ChannelWindow.size(-1, 1e6, Long.MAX_VALUE));
+        assertEquals(ChannelWindow.DEFAULT, ChannelWindow.size(10, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void nearbySlaveGetsTheMinimum() {
+        // 1 ms, 100 MB/s
+        assertEquals(ChannelWindow.MIN, ChannelWindow.size(1, 100e6, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bandwidthDelayProduct() {
+        // 100 ms, 10 MB/s
+        assertEquals(2000000, ChannelWindow.size(100, 10e6, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void distantSlaveIsCapped() {
+        // 300 ms, 1 GB/s
+        assertEquals(ChannelWindow.MAX, ChannelWindow.size(300, 1e9, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void measurementLimitedByItsOwnWindow() {
+        // 200 ms, 2.5 MB/s is exactly what 512K in flight gives, so the link may be faster
+        assertEquals(ChannelWindow.DEFAULT, ChannelWindow.size(200, 2.5e6, 512 * 1024));
+    }
+
+    @Test
+    public void smallChangesAreIgnored() {
+        assertFalse(ChannelWindow.isWorthChanging(1000000, 1100000));
+        assertTrue(ChannelWindow.isWorthChanging(1000000, 1300000));
+        assertTrue(ChannelWindow.isWorthChanging(1000000, 700000));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JDKBundleCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private Callable<URL> locator(final File source) {
+        return new Callable<URL>() {
+            public URL call() throws Exception {
+                downloads.incrementAndGet();
+                return source.toURI().toURL();
+            }
+        };
+    }
+
+    @Test
+    public void downloadsOnce() throws Exception {
+        File source = tmp.newFile("jdk.bin");
+        FileUtils.writeStringToFile(source, "bundle");
+        JDKBundleCache cache = new JDKBundleCache(tmp.newFolder("cache"));
+
+        File first = cache.get("jdk-linux-amd64", locator(source), TaskListener.NULL);
+        File second = cache.get("jdk-linux-amd64", locator(source), TaskListener.NULL);
+        assertEquals(first, second);
+        assertEquals("bundle", FileUtils.readFileToString(second));
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void corruptBundleIsDownloadedAgain() throws Exception {
+        File source = tmp.newFile("jdk.bin");
+        FileUtils.writeStringToFile(source, "bundle");
+        File dir = tmp.newFolder("cache");
+
+        File bundle = new JDKBundleCache(dir).get("jdk-linux-amd64", locator(source), TaskListener.NULL);
+        FileUtils.writeStringToFile(bundle, "garbage");
+        // a new master process doesn't trust what's on disk
+        bundle = new JDKBundleCache(dir).get("jdk-linux-amd64", locator(source), TaskListener.NULL);
+        assertEquals("bundle", FileUtils.readFileToString(bundle));
+        assertEquals(2, downloads.get());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneDownload() throws Exception {
+        final File source = tmp.newFile("jdk.bin");
+        FileUtils.writeStringToFile(source, "bundle");
+        final JDKBundleCache cache = new JDKBundleCache(tmp.newFolder("cache"));
+        final CountDownLatch downloading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Callable<URL> slow = new Callable<URL>() {
+            public URL call() throws Exception {
+                downloads.incrementAndGet();
+                downloading.countDown();
+                proceed.await();
+                return source.toURI().toURL();
+            }
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            Future<File> first = es.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    return cache.get("jdk-linux-amd64", slow, TaskListener.NULL);
+                }
+            });
+            downloading.await();
+            final CountDownLatch waiting = new CountDownLatch(1);
+            final TaskListener waiter = new StreamTaskListener(new PrintStream(new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    super.write(b, off, len);
+                    if (toString().contains("Waiting for another download")) {
+                        waiting.countDown();
+                    }
+                }
+            }, true));
+            Future<File> second = es.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    return cache.get("jdk-linux-amd64", slow, waiter);
+                }
+            });
+            // only let the download finish once the second caller is waiting for it, rather than finding it cached
+            assertTrue(waiting.await(10, TimeUnit.SECONDS));
+            proceed.countDown();
+            assertEquals(first.get(), second.get());
+            assertEquals(1, downloads.get());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        File source = tmp.newFile("jdk.bin");
+        FileUtils.writeByteArrayToFile(source, new byte[600 * 1024]);
+        JDKBundleCache cache = new JDKBundleCache(tmp.newFolder("cache"));
+        long maxSize = JDKBundleCache.MAX_SIZE;
+        JDKBundleCache.MAX_SIZE = 1;
+        try {
+            File a = cache.get("a", locator(source), TaskListener.NULL);
+            a.setLastModified(System.currentTimeMillis() - 60000);
+            cache.release(a);
+            File b = cache.get("b", locator(source), TaskListener.NULL);
+            assertFalse(a.exists());
+            assertTrue(b.exists());
+        } finally {
+            JDKBundleCache.MAX_SIZE = maxSize;
+        }
+    }
+
+    @Test
+    public void bundlesInUseAreNotEvicted() throws Exception {
+        File source = tmp.newFile("jdk.bin");
+        FileUtils.writeByteArrayToFile(source, new byte[600 * 1024]);
+        JDKBundleCache cache = new JDKBundleCache(tmp.newFolder("cache"));
+        long maxSize = JDKBundleCache.MAX_SIZE;
+        JDKBundleCache.MAX_SIZE = 1;
+        try {
+            // handed out twice, say to two slaves copying it
+            File a = cache.get("a", locator(source), TaskListener.NULL);
+            assertEquals(a, cache.get("a", locator(source), TaskListener.NULL));
+            a.setLastModified(System.currentTimeMillis() - 60000);
+
+            File b = cache.get("b", locator(source), TaskListener.NULL);
+            assertTrue(a.exists());
+            cache.release(b);
+            cache.release(a);
+            b.setLastModified(System.currentTimeMillis() - 30000);
+            cache.get("c", locator(source), TaskListener.NULL);
+            // one user left
+            assertTrue(a.exists());
+            assertFalse(b.exists());
+
+            cache.release(a);
+            cache.get("d", locator(source), TaskListener.NULL);
+            assertFalse(a.exists());
+        } finally {
+            JDKBundleCache.MAX_SIZE = maxSize;
+        }
+    }
+}
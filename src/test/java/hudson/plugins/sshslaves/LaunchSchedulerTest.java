@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LaunchSchedulerTest {
+
+    private static LaunchScheduler withLimit(final int limit) {
+        return new LaunchScheduler("test") {
+            @Override
+            int getLimit() {
+                return limit;
+            }
+        };
+    }
+
+    /**
+     * Queues a launch with the given priority on its own thread, which adds the priority to {@code granted}
+     * once it gets a slot, and returns once it is in the queue.
+     */
+    private static Thread queue(final LaunchScheduler s, final int priority, final List<Integer> granted)
+            throws InterruptedException {
+        int before = s.getQueueLength();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    s.acquire(priority);
+                    granted.add(priority);
+                } catch (InterruptedException e) {
+                    // expected by some tests
+                }
+            }
+        };
+        t.start();
+        while (s.getQueueLength() == before) {
+            Thread.sleep(10);
+        }
+        return t;
+    }
+
+    @Test
+    public void cap() throws Exception {
+        LaunchScheduler s = withLimit(2);
+        s.acquire(0);
+        s.acquire(0);
+        assertEquals(2, s.getRunning());
+
+        List<Integer> granted = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread t = queue(s, 0, granted);
+        Thread.sleep(100);
+        // still waiting for a slot
+        assertEquals(Collections.<Integer>emptyList(), granted);
+        assertEquals(1, s.getQueueLength());
+        assertEquals(2, s.getRunning());
+
+        s.release();
+        t.join(10000);
+        assertEquals(Collections.singletonList(0), granted);
+        assertEquals(0, s.getQueueLength());
+        assertEquals(2, s.getRunning());
+    }
+
+    @Test
+    public void demandFirstThenArrivalOrder() throws Exception {
+        LaunchScheduler s = withLimit(1);
+        s.acquire(0);
+
+        List<Integer> granted = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(queue(s, 0, granted));
+        threads.add(queue(s, 3, granted));
+        threads.add(queue(s, 1, granted));
+        threads.add(queue(s, 3, granted));
+        threads.add(queue(s, 0, granted));
+        assertEquals(5, s.getQueueLength());
+
+        for (int i = 0; i < threads.size(); i++) {
+            int n = granted.size();
+            s.release();
+            while (granted.size() == n) {
+                Thread.sleep(10);
+            }
+            assertEquals(threads.size() - i - 1, s.getQueueLength());
+        }
+        for (Thread t : threads) {
+            t.join(10000);
+        }
+        // nodes with more items waiting for them go first, the rest in the order they came
+        assertEquals(Arrays.asList(3, 3, 1, 0, 0), granted);
+    }
+
+    @Test
+    public void interruptedWaitLeavesTheQueue() throws Exception {
+        LaunchScheduler s = withLimit(1);
+        s.acquire(0);
+
+        List<Integer> granted = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread t = queue(s, 0, granted);
+        t.interrupt();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertEquals(0, s.getQueueLength());
+
+        s.release();
+        assertEquals(0, s.getRunning());
+        assertEquals(Collections.<Integer>emptyList(), granted);
+    }
+}
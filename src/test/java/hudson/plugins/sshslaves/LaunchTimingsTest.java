@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import hudson.plugins.sshslaves.LaunchTimings.Histogram;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LaunchTimingsTest {
+
+    @Test
+    public void emptyHistogram() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(50));
+        assertEquals(0.0, h.getMean(), 0.0);
+    }
+
+    @Test
+    public void bucketsAndPercentiles() {
+        Histogram h = new Histogram();
+        for (int i = 0; i < 90; i++) {
+            h.record(40);
+        }
+        for (int i = 0; i < 10; i++) {
+            h.record(3000);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(3000, h.getMax());
+        assertEquals(336.0, h.getMean(), 0.001);
+        assertEquals(50, h.getPercentile(50));
+        assertEquals(50, h.getPercentile(90));
+        assertEquals(3000, h.getPercentile(99));
+        assertEquals(90, h.getBuckets()[2]);
+        assertEquals(10, h.getBuckets()[8]);
+    }
+
+    @Test
+    public void overflowBucket() {
+        Histogram h = new Histogram();
+        h.record(Long.MAX_VALUE / 2);
+        long[] buckets = h.getBuckets();
+        assertEquals(1, buckets[buckets.length - 1]);
+        assertEquals(Histogram.getBounds().length + 1, buckets.length);
+        assertEquals(Long.MAX_VALUE / 2, h.getPercentile(100));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import org.apache.sshd.SshServer;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.PasswordAuthenticator;
+import org.apache.sshd.server.command.ScpCommandFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.sftp.SftpSubsystem;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+/**
+ * In-process SSH server on the loopback interface that runs commands with <tt>/bin/sh</tt> as the current user
+ * and serves SCP and SFTP, good enough for {@link SSHLauncher} to launch a slave against.
+ *
+ * <p>
+ * Optionally sits behind a {@link ThrottlingProxy}, in which case {@link #getPort()} is the port of the proxy.
+ */
+class LoopbackSSHServer implements Closeable {
+    static final String USER = "jenkins";
+    static final String PASSWORD = "jenkins";
+
+    private final SshServer sshd;
+    private final ThrottlingProxy proxy;
+
+    /**
+     * @param latencyMillis  One-way delay to inject, 0 for none.
+     * @param bytesPerSecond Bandwidth to cap each direction to, 0 for unlimited.
+     */
+    LoopbackSSHServer(File hostKey, long latencyMillis, long bytesPerSecond) throws IOException {
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("127.0.0.1");
+        sshd.setPort(findFreePort());
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(hostKey.getAbsolutePath()));
+        sshd.setPasswordAuthenticator(new PasswordAuthenticator() {
+            public boolean authenticate(String username, String password, ServerSession session) {
+                return USER.equals(username) && PASSWORD.equals(password);
+            }
+        });
+        sshd.setCommandFactory(new ScpCommandFactory(new CommandFactory() {
+            public Command createCommand(String command) {
+                return new ProcessShellFactory(new String[]{"/bin/sh", "-c", command}).create();
+            }
+        }));
+        sshd.setSubsystemFactories(Collections.<NamedFactory<Command>>singletonList(new SftpSubsystem.Factory()));
+        sshd.start();
+        if (latencyMillis > 0 || bytesPerSecond > 0) {
+            proxy = new ThrottlingProxy(sshd.getPort(), latencyMillis, bytesPerSecond);
+        } else {
+            proxy = null;
+        }
+    }
+
+    LoopbackSSHServer(File hostKey) throws IOException {
+        this(hostKey, 0, 0);
+    }
+
+    /**
+     * Port that clients should connect to on 127.0.0.1.
+     */
+    int getPort() {
+        return proxy != null ? proxy.getPort() : sshd.getPort();
+    }
+
+    public void close() throws IOException {
+        if (proxy != null) {
+            proxy.close();
+        }
+        try {
+            sshd.stop(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+}
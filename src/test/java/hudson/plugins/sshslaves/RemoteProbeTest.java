@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteProbeTest {
+
+    private static final String M = "@@m@@";
+
+    @Test
+    public void parse() {
+        List<String> javas = Arrays.asList("java", "/usr/bin/java");
+        String out = "\n" + M + "BEGIN\nHOME=/home/jenkins\nPATH=/usr/bin\n"
+                + "\n" + M + "UNAME\nLinux box 4.4.0 x86_64 GNU/Linux\n"
+                + "\n" + M + "JAVA 0\nsh: java: not found\n"
+                + "\n" + M + "JAVA 1\nopenjdk version \"1.8.0_91\"\n"
+                + "\n" + M + "PATH 0\n"
+                + "\n" + M + "PATH 1\n/usr/bin/java\n"
+                + "\n" + M + "END\n";
+        RemoteProbe p = RemoteProbe.parse(M, out, "", javas);
+        assertEquals("", p.junk);
+        assertEquals("HOME=/home/jenkins\nPATH=/usr/bin\n", p.environment);
+        assertEquals("Linux box 4.4.0 x86_64 GNU/Linux\n", p.uname);
+        assertEquals("sh: java: not found\n", p.getJavaVersionOutput("java"));
+        assertEquals("openjdk version \"1.8.0_91\"\n", p.getJavaVersionOutput("/usr/bin/java"));
+        assertNull(p.getJavaVersionOutput("/opt/java"));
+        assertNull(p.getJavaPath("java"));
+        assertEquals("/usr/bin/java", p.getJavaPath("/usr/bin/java"));
+        assertEquals(javas, p.javaCommands);
+    }
+
+    @Test
+    public void javaOnThePath() {
+        String out = "\n" + M + "BEGIN\n\n" + M + "UNAME\nLinux\n"
+                + "\n" + M + "JAVA 0\njava version \"1.7.0_80\"\n"
+                + "\n" + M + "PATH 0\n/usr/lib/jvm/java-7/bin/java\n"
+                + "\n" + M + "END\n";
+        RemoteProbe p = RemoteProbe.parse(M, out, "", Collections.singletonList("java"));
+        assertEquals("/usr/lib/jvm/java-7/bin/java", p.getJavaPath("java"));
+    }
+
+    @Test
+    public void junk() {
+        String out = "Welcome!" + "\n" + M + "BEGIN\n\n" + M + "UNAME\nSunOS\n\n" + M + "END\n";
+        RemoteProbe p = RemoteProbe.parse(M, out, "stty: not a tty\n", Collections.<String>emptyList());
+        assertEquals("Welcome!stty: not a tty\n", p.junk);
+        assertEquals("SunOS\n", p.uname);
+    }
+
+    @Test
+    public void incomplete() {
+        assertNull(RemoteProbe.parse(M, "", "sh: not found\n", Collections.<String>emptyList()));
+        assertNull(RemoteProbe.parse(M, "\n" + M + "BEGIN\nX=1\n\n" + M + "UNAME\n", "",
+                Collections.<String>emptyList()));
+        // a java candidate went missing
+        assertNull(RemoteProbe.parse(M, "\n" + M + "BEGIN\n\n" + M + "UNAME\n\n" + M + "END\n", "",
+                Collections.singletonList("java")));
+        // so did where it is
+        assertNull(RemoteProbe.parse(M, "\n" + M + "BEGIN\n\n" + M + "UNAME\n\n" + M + "JAVA 0\n\n" + M + "END\n",
+                "", Collections.singletonList("java")));
+    }
+
+    @Test
+    public void command() {
+        String c = RemoteProbe.command(M, Collections.singletonList("/opt/it's/java"), "-Dx=y");
+        assertTrue(c, c.startsWith("sh -c '"));
+        assertTrue(c, c.contains("/opt/it'\\''s/java -Dx=y -version 2>&1"));
+        assertTrue(c, c.contains("command -v /opt/it'\\''s/java 2>/dev/null"));
+    }
+}
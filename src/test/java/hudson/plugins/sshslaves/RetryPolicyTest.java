@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private static IOException wrap(Throwable cause) {
+        return (IOException) new IOException("There was a problem while connecting to host:22").initCause(cause);
+    }
+
+    @Test
+    public void classification() {
+        assertTrue(RetryPolicy.isRetryable(wrap(new ConnectException("Connection refused"))));
+        assertTrue(RetryPolicy.isRetryable(wrap(new SocketException("Connection reset"))));
+        assertTrue(RetryPolicy.isRetryable(wrap(new EOFException())));
+        assertTrue(RetryPolicy.isRetryable(wrap(new IOException("Key exchange was not finished, connection is closed."))));
+        assertTrue(RetryPolicy.isRetryable(new IOException("connect timed out", new java.net.SocketTimeoutException())));
+        assertFalse(RetryPolicy.isRetryable(wrap(new UnknownHostException("nosuchhost"))));
+        assertFalse(RetryPolicy.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void delaysGrowUpToTheCap() {
+        RetryPolicy p = new RetryPolicy(10, 1000, 5000, 0, new Random(42));
+        for (int failed = 1; failed <= 10; failed++) {
+            long bound = Math.min(5000, 1000L << (failed - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = p.getDelayMillis(failed, 0);
+                assertTrue(delay >= 0 && delay <= bound);
+            }
+        }
+        assertEquals(-1, p.getDelayMillis(11, 0));
+    }
+
+    @Test
+    public void noWait() {
+        RetryPolicy p = new RetryPolicy(3, 0, 0, 0, new Random());
+        assertEquals(0, p.getDelayMillis(1, 0));
+        assertEquals(0, p.getDelayMillis(3, 0));
+        assertEquals(-1, p.getDelayMillis(4, 0));
+    }
+
+    @Test
+    public void budget() {
+        RetryPolicy p = new RetryPolicy(100, 0, 0, 10000, new Random());
+        assertEquals(0, p.getDelayMillis(1, 9999));
+        assertEquals(-1, p.getDelayMillis(2, 10000));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import hudson.Functions;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Copies files with {@link SFTPClient#upload(File, String, int)} and {@link SFTPClient#uploadResumable(File, String)}
+ * to a {@link LoopbackSSHServer}.
+ */
+public class SFTPClientTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LoopbackSSHServer server;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(Functions.isWindows());
+        server = new LoopbackSSHServer(tmp.newFile("hostkey"));
+        connection = new Connection("127.0.0.1", server.getPort());
+        connection.connect();
+        assertTrue(connection.authenticateWithPassword(LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void uploadInRanges() throws Exception {
+        // not a multiple of the block size, so that the last range is a short one
+        assertUploaded(16 * 1024 * 1024 + 12345, 4);
+    }
+
+    @Test
+    public void uploadSmallFileOverOneChannel() throws Exception {
+        assertUploaded(100 * 1024, 4);
+    }
+
+    @Test
+    public void uploadEmptyFile() throws Exception {
+        assertUploaded(0, 4);
+    }
+
+    @Test
+    public void resumeFromPartialUpload() throws Exception {
+        byte[] data = randomBytes(3 * 1024 * 1024 + 17);
+        File src = write(tmp.newFile(), data, data.length);
+        File dst = new File(tmp.getRoot(), "resumed");
+        // cut off in the middle of a block
+        write(new File(dst.getPath() + SFTPClient.PART_SUFFIX), data, 2 * 1024 * 1024 + 1000);
+
+        assertEquals(data.length - (2 * 1024 * 1024 + 1000), uploadResumable(src, dst));
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(dst)));
+        assertFalse(new File(dst.getPath() + SFTPClient.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void resumeFromLastGoodBlock() throws Exception {
+        byte[] data = randomBytes(3 * 1024 * 1024);
+        File src = write(tmp.newFile(), data, data.length);
+        File dst = new File(tmp.getRoot(), "damaged");
+        byte[] damaged = data.clone();
+        damaged[2 * 1024 * 1024 - 1] ^= 1;
+        write(new File(dst.getPath() + SFTPClient.PART_SUFFIX), damaged, 2 * 1024 * 1024);
+
+        // the last 64k block of the partial upload is sent again
+        assertEquals(data.length - (2 * 1024 * 1024 - 64 * 1024), uploadResumable(src, dst));
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(dst)));
+    }
+
+    @Test
+    public void startOverIfNothingMatches() throws Exception {
+        byte[] data = randomBytes(3 * 1024 * 1024);
+        File src = write(tmp.newFile(), data, data.length);
+        File dst = new File(tmp.getRoot(), "garbage");
+        write(new File(dst.getPath() + SFTPClient.PART_SUFFIX), randomBytes(2 * 1024 * 1024), 2 * 1024 * 1024);
+        // an older file in the way gets replaced
+        write(dst, data, 10);
+
+        assertEquals(data.length, uploadResumable(src, dst));
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(dst)));
+    }
+
+    private long uploadResumable(File src, File dst) throws Exception {
+        SFTPClient sftp = new SFTPClient(connection);
+        try {
+            return sftp.uploadResumable(src, dst.getAbsolutePath());
+        } finally {
+            sftp.close();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static File write(File f, byte[] data, int len) throws IOException {
+        FileUtils.writeByteArrayToFile(f, Arrays.copyOf(data, len));
+        return f;
+    }
+
+    private void assertUploaded(int size, int channels) throws Exception {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File src = tmp.newFile();
+        FileUtils.writeByteArrayToFile(src, data);
+        File dst = new File(tmp.getRoot(), "copy-" + size);
+
+        SFTPClient sftp = new SFTPClient(connection);
+        try {
+            sftp.upload(src, dst.getAbsolutePath(), channels);
+        } finally {
+            sftp.close();
+        }
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(dst)));
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.trilead.ssh2.Connection;
+import hudson.Functions;
+import hudson.model.Computer;
+import hudson.model.Node.Mode;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.remoting.Channel;
+import hudson.util.StreamTaskListener;
+import hudson.plugins.sshslaves.LaunchTimings.Histogram;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Launches slaves end to end against a {@link LoopbackSSHServer} and reports how long each phase took.
+ *
+ * <p>
+ * Doubles as a benchmark of the launch path: set <tt>-Dhudson.plugins.sshslaves.SSHLauncherLoopbackTest.iterations</tt>
+ * to launch more times, and <tt>.latency</tt> (one-way, in milliseconds) and <tt>.bandwidth</tt> (bytes per second)
+ * to change the network conditions of {@link #launchOverSlowNetwork()}.
+ */
+public class SSHLauncherLoopbackTest {
+    private static final Logger LOGGER = Logger.getLogger(SSHLauncherLoopbackTest.class.getName());
+    private static final int ITERATIONS = Integer.getInteger(SSHLauncherLoopbackTest.class.getName() + ".iterations", 1);
+    private static final long LATENCY = Long.getLong(SSHLauncherLoopbackTest.class.getName() + ".latency", 20);
+    private static final long BANDWIDTH = Long.getLong(SSHLauncherLoopbackTest.class.getName() + ".bandwidth", 2 * 1024 * 1024);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        // the server runs commands with /bin/sh
+        assumeFalse(Functions.isWindows());
+        SystemCredentialsProvider.getInstance().getDomainCredentialsMap().put(Domain.global(),
+                Collections.<Credentials>singletonList(new UsernamePasswordCredentialsImpl(CredentialsScope.SYSTEM,
+                        "loopback", null, LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD)));
+    }
+
+    @After
+    public void report() {
+        LaunchTimings timings = LaunchTimings.get();
+        if (timings == null) {
+            return;
+        }
+        for (String name : timings.getNodeNames()) {
+            StringBuilder b = new StringBuilder("Launch timings of ").append(name).append(':');
+            for (LaunchPhase phase : LaunchPhase.values()) {
+                Histogram h = timings.getNode(name, phase);
+                if (h != null && h.getCount() > 0) {
+                    b.append(String.format("%n  %-22s %s", phase, h));
+                }
+            }
+            LOGGER.info(b.toString());
+        }
+    }
+
+    @Test
+    public void launch() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            launchAndDisconnect("loopback", server.getPort());
+            // forgotten with the node
+            j.jenkins.removeNode(j.jenkins.getNode("loopback"));
+            assertNull(LaunchTimings.get().getNode("loopback", LaunchPhase.TOTAL));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void launchWithoutJavaPath() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            SSHLauncher launcher = new SSHLauncher("127.0.0.1", server.getPort(), "loopback", null, null, null, null,
+                    60, 0, 0);
+            EnvironmentVariablesNodeProperty javaHome = new EnvironmentVariablesNodeProperty(
+                    new EnvironmentVariablesNodeProperty.Entry("JAVA_HOME", System.getProperty("java.home")));
+            DumbSlave slave = new DumbSlave("probed", "loopback", j.createTmpDir().getPath(), "1", Mode.NORMAL, "",
+                    launcher, RetentionStrategy.NOOP, Collections.<NodeProperty<?>>singletonList(javaHome));
+            j.jenkins.addNode(slave);
+            Computer computer = slave.toComputer();
+
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+            // found by the probe, and remembered by where it actually is
+            JavaCache.Entry java = JavaCache.get("probed");
+            assertNotNull(java);
+            assertTrue(java.path, java.path.startsWith("/"));
+            assertNotNull(java.version);
+
+            computer.disconnect(null).get();
+            for (int wait = 0; wait < 100 && computer.isOnline(); wait++) {
+                Thread.sleep(100);
+            }
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+            assertTrue(computer.getLog(), computer.getLog().contains("unchanged since the last launch"));
+            assertEquals(2, LaunchTimings.get().getNode("probed", LaunchPhase.CONNECT).getCount());
+
+            // a new node of the same name mustn't inherit it
+            j.jenkins.removeNode(slave);
+            assertNull(JavaCache.get("probed"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void launchWithCompressedSlaveJar() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        boolean compress = SSHLauncher.COMPRESS_SLAVE_JAR;
+        SSHLauncher.COMPRESS_SLAVE_JAR = true;
+        try {
+            launchAndDisconnect("compressed", server.getPort());
+        } finally {
+            SSHLauncher.COMPRESS_SLAVE_JAR = compress;
+            server.close();
+        }
+    }
+
+    @Test
+    public void relaunchOverKeptConnection() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            DumbSlave slave = createSlave("relaunch", server.getPort(), j.createTmpDir());
+            Computer computer = slave.toComputer();
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+
+            // the channel dies while the SSH connection is fine
+            ((Channel) computer.getChannel()).terminate(new IOException("simulated channel failure"));
+            for (int wait = 0; wait < 100 && !computer.getLog().contains("Keeping the SSH connection open"); wait++) {
+                Thread.sleep(100);
+            }
+            assertTrue(computer.getLog(), computer.getLog().contains("Keeping the SSH connection open"));
+
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+            assertTrue(computer.getLog(), computer.getLog().contains("Relaunching the slave"));
+            assertEquals(1, LaunchTimings.get().getNode("relaunch", LaunchPhase.CONNECT).getCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void noRelaunchAfterDisconnectByMaster() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            DumbSlave slave = createSlave("disconnected", server.getPort(), j.createTmpDir());
+            SSHLauncher launcher = (SSHLauncher) slave.getLauncher();
+            Computer computer = slave.toComputer();
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+
+            // asked for by a user
+            computer.disconnect(null).get();
+            assertNull(launcher.getConnection());
+            assertFalse(computer.getLog(), computer.getLog().contains("Keeping the SSH connection open"));
+
+            computer.connect(true).get();
+            assertTrue(computer.getLog(), computer.isOnline());
+            assertEquals(2, LaunchTimings.get().getNode("disconnected", LaunchPhase.CONNECT).getCount());
+
+            // the node is deleted
+            j.jenkins.removeNode(slave);
+            for (int wait = 0; wait < 100 && launcher.getConnection() != null; wait++) {
+                Thread.sleep(100);
+            }
+            assertNull(launcher.getConnection());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void launchOverSlowNetwork() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"), LATENCY, BANDWIDTH);
+        try {
+            launchAndDisconnect("slow", server.getPort());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void streamJDKInstall() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            File jdk = new File(j.createTmpDir(), "jdk1.8.0_99");
+            File java = new File(jdk, "bin/java");
+            assertTrue(java.getParentFile().mkdirs());
+            FileUtils.writeStringToFile(java, "#!/bin/sh\n");
+            File bundle = new File(j.createTmpDir(), "jdk.tar.gz");
+            Process tar = new ProcessBuilder("tar", "czf", bundle.getPath(), "-C", jdk.getParent(), jdk.getName())
+                    .redirectErrorStream(true).start();
+            assertEquals(0, tar.waitFor());
+
+            File javaDir = j.createTmpDir();
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            assertTrue(log.toString(), extractJDK(server.getPort(), bundle, javaDir, log));
+            // pulled up out of the directory the bundle has it in
+            assertTrue(new File(javaDir, "bin/java").isFile());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void streamJDKInstallFailure() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        try {
+            File bundle = new File(j.createTmpDir(), "jdk.tar.gz");
+            FileUtils.writeStringToFile(bundle, "not a JDK");
+
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            // tells the caller to fall back to the usual install
+            assertFalse(extractJDK(server.getPort(), bundle, j.createTmpDir(), log));
+            assertTrue(log.toString(), log.toString().contains("installing it the usual way"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void currentJDK() throws Exception {
+        LoopbackSSHServer server = new LoopbackSSHServer(new File(j.createTmpDir(), "hostkey.ser"));
+        Connection connection = new Connection("127.0.0.1", server.getPort());
+        try {
+            connection.connect();
+            assertTrue(connection.authenticateWithPassword(LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD));
+            File workingDirectory = j.createTmpDir();
+            assertNull(SSHLauncher.getCurrentJDK(connection, workingDirectory.getAbsolutePath()));
+
+            File current = new File(workingDirectory, "jdk/current");
+            FileUtils.writeStringToFile(current, "jdk-8u99-oth-JPR-LINUX-amd64\n");
+            assertEquals("jdk-8u99-oth-JPR-LINUX-amd64",
+                    SSHLauncher.getCurrentJDK(connection, workingDirectory.getAbsolutePath()));
+
+            // never leads out of the jdk directory
+            FileUtils.writeStringToFile(current, "../bin\n");
+            assertNull(SSHLauncher.getCurrentJDK(connection, workingDirectory.getAbsolutePath()));
+        } finally {
+            connection.close();
+            server.close();
+        }
+    }
+
+    private boolean extractJDK(int port, File bundle, File javaDir, ByteArrayOutputStream log) throws Exception {
+        SSHLauncher launcher = new SSHLauncher("127.0.0.1", port, "loopback", null, null, null, null, 60, 0, 0);
+        Connection connection = new Connection("127.0.0.1", port);
+        try {
+            connection.connect();
+            assertTrue(connection.authenticateWithPassword(LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD));
+            SFTPClient sftp = new SFTPClient(connection);
+            try {
+                return launcher.extractJDK(connection, new StreamTaskListener(log), bundle, javaDir.getAbsolutePath(), sftp);
+            } finally {
+                sftp.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private DumbSlave createSlave(String name, int port, File remoteFS) throws Exception {
+        String java = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+        SSHLauncher launcher = new SSHLauncher("127.0.0.1", port, "loopback", null, java, null, null, 60, 0, 0);
+        DumbSlave slave = new DumbSlave(name, "loopback", remoteFS.getPath(), "1", Mode.NORMAL, "",
+                launcher, RetentionStrategy.NOOP, Collections.<NodeProperty<?>>emptyList());
+        j.jenkins.addNode(slave);
+        return slave;
+    }
+
+    private void launchAndDisconnect(String name, int port) throws Exception {
+        File remoteFS = j.createTmpDir();
+        Computer computer = createSlave(name, port, remoteFS).toComputer();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            computer.connect(true).get();
+            assertTrue("launch #" + i + " failed:\n" + computer.getLog(), computer.isOnline());
+            assertEquals(SlaveJar.get().length, new File(remoteFS, "slave.jar").length());
+
+            computer.disconnect(null).get();
+            for (int wait = 0; wait < 100 && computer.isOnline(); wait++) {
+                Thread.sleep(100);
+            }
+            assertTrue(computer.isOffline());
+        }
+
+        Histogram total = LaunchTimings.get().getNode(name, LaunchPhase.TOTAL);
+        assertEquals(ITERATIONS, total.getCount());
+        // the connection isn't kept for a relaunch when the master disconnects the slave
+        assertEquals(ITERATIONS, LaunchTimings.get().getNode(name, LaunchPhase.CONNECT).getCount());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedConnectionsTest {
+
+    @Test
+    public void referenceCounting() {
+        String key = SharedConnections.key("Host.example.com", 22, "referenceCounting", "f");
+        assertEquals(key, SharedConnections.key("host.example.com", 22, "referenceCounting", "f"));
+        // edited credentials
+        assertFalse(key.equals(SharedConnections.key("host.example.com", 22, "referenceCounting", "g")));
+        Connection c = new Connection("host.example.com", 22);
+        assertNull(SharedConnections.acquire(key));
+        assertTrue(SharedConnections.register(key, c));
+        assertFalse(SharedConnections.register(key, new Connection("host.example.com", 22)));
+        assertSame(c, SharedConnections.acquire(key));
+        assertEquals(2, SharedConnections.getReferences(c));
+
+        assertFalse(SharedConnections.release(c));
+        assertTrue(SharedConnections.release(c));
+        assertNull(SharedConnections.acquire(key));
+    }
+
+    @Test
+    public void discard() {
+        String key = SharedConnections.key("host.example.com", 22, "discard", "f");
+        Connection c = new Connection("host.example.com", 22);
+        assertTrue(SharedConnections.register(key, c));
+        assertSame(c, SharedConnections.acquire(key));
+        SharedConnections.discard(c);
+        assertNull(SharedConnections.acquire(key));
+        assertFalse(SharedConnections.release(c));
+        assertTrue(SharedConnections.release(c));
+    }
+
+    @Test
+    public void unsharedConnectionsAreClosedByTheirOwner() {
+        assertTrue(SharedConnections.release(new Connection("host.example.com", 22)));
+    }
+}
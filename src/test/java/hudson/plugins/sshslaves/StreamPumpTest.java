@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.Session;
+import hudson.Functions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Copies the streams of processes run on a {@link LoopbackSSHServer} with {@link StreamPump}.
+ */
+public class StreamPumpTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LoopbackSSHServer server;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(Functions.isWindows());
+        server = new LoopbackSSHServer(tmp.newFile("hostkey"));
+        connection = new Connection("127.0.0.1", server.getPort());
+        connection.connect();
+        assertTrue(connection.authenticateWithPassword(LoopbackSSHServer.USER, LoopbackSSHServer.PASSWORD));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void drainsOutputBeforeEof() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // more than fits in the SSH window, and the process exits right after writing it
+        run("i=0; while [ $i -lt 20000 ]; do echo line$i; i=$((i+1)); done", out, new ByteArrayOutputStream(), null);
+        String[] lines = out.toString().split("\n");
+        assertEquals(20000, lines.length);
+        assertEquals("line19999", lines[lines.length - 1]);
+    }
+
+    @Test
+    public void separatesStdoutAndStderr() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        run("echo out; echo err >&2; sleep 1; echo more out; echo more err >&2", out, err, null);
+        assertEquals("out\nmore out\n", out.toString());
+        assertEquals("err\nmore err\n", err.toString());
+    }
+
+    @Test
+    public void copiesInput() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        run("cat", out, new ByteArrayOutputStream(), new ByteArrayInputStream("hello\nworld\n".getBytes("UTF-8")));
+        assertEquals("hello\nworld\n", out.toString());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        Session session = connection.openSession();
+        try {
+            session.execCommand("echo started; sleep 60");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamPump.Pump pump = StreamPump.start("cancel", session, out, new ByteArrayOutputStream(), null);
+            for (int wait = 0; wait < 100 && out.size() == 0; wait++) {
+                Thread.sleep(100);
+            }
+            assertEquals("started\n", out.toString());
+
+            long start = System.currentTimeMillis();
+            pump.cancel();
+            pump.join();
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        } finally {
+            session.close();
+        }
+    }
+
+    private void run(String command, ByteArrayOutputStream out, ByteArrayOutputStream err, InputStream in)
+            throws Exception {
+        Session session = connection.openSession();
+        try {
+            session.execCommand(command);
+            StreamPump.start(command, session, out, err, in).join();
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-, all the contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.sshslaves;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP proxy on the loopback interface that adds a one-way delay and caps the bandwidth in each direction,
+ * so that tests can see how the launch behaves over a WAN without leaving the machine.
+ */
+class ThrottlingProxy implements Closeable {
+    private final ServerSocket server;
+    private final int targetPort;
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final CopyOnWriteArrayList<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+
+    /**
+     * @param targetPort     Port on localhost to forward to.
+     * @param latencyMillis  Delay added to every chunk in each direction, so the round trip grows by twice that.
+     * @param bytesPerSecond Bandwidth in each direction, 0 or less for unlimited.
+     */
+    ThrottlingProxy(int targetPort, long latencyMillis, long bytesPerSecond) throws IOException {
+        this.targetPort = targetPort;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread t = new Thread("ThrottlingProxy accept on " + getPort()) {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket client = server.accept();
+                Socket target = new Socket();
+                target.connect(new InetSocketAddress("127.0.0.1", targetPort));
+                client.setTcpNoDelay(true);
+                target.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(target);
+                forward(client, target, "up");
+                forward(target, client, "down");
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private void forward(final Socket from, final Socket to, String direction) throws IOException {
+        final InputStream in = from.getInputStream();
+        final OutputStream out = to.getOutputStream();
+        final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+
+        // the reader timestamps what it receives, the writer holds each chunk back until it's due,
+        // so the delay doesn't eat into the bandwidth the way sleeping in a single thread would
+        Thread reader = new Thread("ThrottlingProxy " + direction + " reader") {
+            @Override
+            public void run() {
+                byte[] buf = new byte[16384];
+                try {
+                    int len;
+                    while ((len = in.read(buf)) >= 0) {
+                        queue.put(new Chunk(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis),
+                                Arrays.copyOf(buf, len)));
+                    }
+                } catch (IOException e) {
+                    // closed
+                } catch (InterruptedException e) {
+                    // closed
+                } finally {
+                    queue.add(Chunk.EOF);
+                }
+            }
+        };
+        Thread writer = new Thread("ThrottlingProxy " + direction + " writer") {
+            @Override
+            public void run() {
+                long budget = System.nanoTime();
+                try {
+                    while (true) {
+                        Chunk c = queue.take();
+                        if (c == Chunk.EOF) {
+                            break;
+                        }
+                        sleepUntil(c.due);
+                        if (bytesPerSecond > 0) {
+                            budget = Math.max(budget, System.nanoTime())
+                                    + TimeUnit.SECONDS.toNanos(c.data.length) / bytesPerSecond;
+                            sleepUntil(budget);
+                        }
+                        out.write(c.data);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // closed
+                } catch (InterruptedException e) {
+                    // closed
+                } finally {
+                    closeQuietly(to);
+                    closeQuietly(from);
+                }
+            }
+        };
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long delay = nanoTime - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        for (Socket s : sockets) {
+            closeQuietly(s);
+        }
+    }
+
+    private static final class Chunk {
+        static final Chunk EOF = new Chunk(0, new byte[0]);
+        final long due;
+        final byte[] data;
+
+        Chunk(long due, byte[] data) {
+            this.due = due;
+            this.data = data;
+        }
+    }
+}